@@ -14,6 +14,8 @@
 
 package com.addthis.metrics.reporter.config;
 
+import javax.validation.constraints.Min;
+
 import java.net.InetAddress;
 
 import java.util.List;
@@ -25,6 +27,37 @@ public class AbstractGraphiteReporterConfig extends AbstractHostPortReporterConf
 {
     private static final Logger log = LoggerFactory.getLogger(AbstractGraphiteReporterConfig.class);
 
+    private boolean fanout;
+
+    @javax.validation.constraints.Pattern(
+        regexp = "^(all|shard)$",
+        message = "must one of: all, shard"
+    )
+    private String distribution = "all";
+
+    @javax.validation.constraints.Pattern(
+        regexp = "^(plaintext|pickle)$",
+        message = "must one of: plaintext, pickle"
+    )
+    private String protocol = "plaintext";
+
+    @Min(1)
+    private int batchSize = 500;
+
+    @javax.validation.constraints.Pattern(
+        regexp = "^(tcp|tcp-persistent|udp)$",
+        message = "must one of: tcp, tcp-persistent, udp"
+    )
+    private String transport = "tcp";
+
+    private String spoolDirectory;
+
+    @Min(1024)
+    private int spoolSize = 64 * 1024 * 1024;
+
+    @Min(1)
+    private long spoolReplayRate = 1024 * 1024;
+
     /**
      * Test constructor
      * 
@@ -45,6 +78,116 @@ public class AbstractGraphiteReporterConfig extends AbstractHostPortReporterConf
         return getHostListAndStringList();
     }
 
+    public boolean isFanout()
+    {
+        return fanout;
+    }
+
+    /**
+     * Encode each tick once and write it to every host in parallel, instead
+     * of running a separate reporter per host.
+     */
+    public void setFanout(boolean fanout)
+    {
+        this.fanout = fanout;
+    }
+
+    public String getDistribution()
+    {
+        return distribution;
+    }
+
+    /**
+     * {@code all} sends every metric to every host, {@code shard} sends each
+     * metric to one host picked by carbon-relay's consistent hashing.
+     */
+    public void setDistribution(String distribution)
+    {
+        this.distribution = distribution;
+    }
+
+    public String getProtocol()
+    {
+        return protocol;
+    }
+
+    /**
+     * {@code plaintext} for carbon's line receiver, {@code pickle} for its
+     * pickle receiver.
+     */
+    public void setProtocol(String protocol)
+    {
+        this.protocol = protocol;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Values per frame of the {@code pickle} protocol.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public String getTransport()
+    {
+        return transport;
+    }
+
+    /**
+     * {@code tcp} connects for every report, {@code tcp-persistent} keeps the
+     * connection open between reports and {@code udp} sends datagrams of
+     * whole lines.
+     */
+    public void setTransport(String transport)
+    {
+        this.transport = transport;
+    }
+
+    public String getSpoolDirectory()
+    {
+        return spoolDirectory;
+    }
+
+    /**
+     * Directory of the spool files holding reports that failed to send, one
+     * per host.  No spooling when unset.
+     */
+    public void setSpoolDirectory(String spoolDirectory)
+    {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public int getSpoolSize()
+    {
+        return spoolSize;
+    }
+
+    /**
+     * Size in bytes of each host's spool file.
+     */
+    public void setSpoolSize(int spoolSize)
+    {
+        this.spoolSize = spoolSize;
+    }
+
+    public long getSpoolReplayRate()
+    {
+        return spoolReplayRate;
+    }
+
+    /**
+     * Bytes per second replayed from a spool once its host is reachable again.
+     */
+    public void setSpoolReplayRate(long spoolReplayRate)
+    {
+        this.spoolReplayRate = spoolReplayRate;
+    }
+
     protected boolean setup(String className)
     {
         if (!isClassAvailable(className))
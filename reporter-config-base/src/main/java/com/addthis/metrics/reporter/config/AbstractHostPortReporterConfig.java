@@ -168,6 +168,11 @@ public abstract class AbstractHostPortReporterConfig extends AbstractMetricRepor
         this.resolvedPrefix = resolvePrefix(prefix);
     }
 
+    @Override
+    protected String getAlignmentSeed() {
+        return localhost == null ? null : localhost.getHostName();
+    }
+
     private String sanitizeName(String name) {
         return name.replaceAll("[^a-zA-Z0-9_-]", "_");
     }
@@ -41,6 +41,11 @@ public abstract class AbstractMetricReporterConfig
             message = "must be a valid java.util.concurrent.TimeUnit"
     )
     protected String durationunit = "MILLISECONDS";
+    @Pattern(
+            regexp = "^(none|period|jittered)$",
+            message = "must one of: none, period, jittered"
+    )
+    protected String alignment = "none";
     @Valid
     protected PredicateConfig predicate;
 
@@ -99,6 +104,78 @@ public abstract class AbstractMetricReporterConfig
         return TimeUnit.valueOf(durationunit);
     }
 
+    public String getAlignment()
+    {
+        return alignment;
+    }
+
+    /**
+     * <dl>
+     * <dt>none</dt>
+     * <dd>ticks fire one period after the reporter is started</dd>
+     * <dt>period</dt>
+     * <dd>ticks fire on wall-clock period boundaries</dd>
+     * <dt>jittered</dt>
+     * <dd>ticks fire on period boundaries shifted by a stable per-host
+     * offset, spreading a fleet across the period while each host keeps
+     * reporting at the same point of every period</dd>
+     * </dl>
+     */
+    public void setAlignment(String alignment)
+    {
+        this.alignment = alignment;
+    }
+
+    public boolean isAligned()
+    {
+        return alignment != null && !alignment.equals("none");
+    }
+
+    /**
+     * Offset into each wall-clock period at which an aligned reporter ticks.
+     */
+    public long getPhaseMillis()
+    {
+        long periodMillis = getRealTimeunit().toMillis(period);
+        if (periodMillis <= 0 || !"jittered".equals(alignment))
+        {
+            return 0;
+        }
+        String seed = getAlignmentSeed();
+        if (seed == null)
+        {
+            return 0;
+        }
+        // String.hashCode is specified, so the phase is stable across restarts
+        long hash = seed.hashCode() * 0x9E3779B97F4A7C15L;
+        hash ^= (hash >>> 32);
+        return ((hash % periodMillis) + periodMillis) % periodMillis;
+    }
+
+    /**
+     * Delay before the first tick when started at {@code nowMillis}, or -1 if
+     * ticks are not aligned (or the period is shorter than a millisecond).
+     */
+    public long getInitialDelayMillis(long nowMillis)
+    {
+        long periodMillis = getRealTimeunit().toMillis(period);
+        if (!isAligned() || periodMillis <= 0)
+        {
+            return -1;
+        }
+        long delay = ((getPhaseMillis() - nowMillis) % periodMillis + periodMillis) % periodMillis;
+        return delay == 0 ? periodMillis : delay;
+    }
+
+    /**
+     * Stable per-host value the jittered phase is derived from; null when
+     * the reporter has no notion of the local host.
+     */
+    protected String getAlignmentSeed()
+    {
+        return null;
+    }
+
     public PredicateConfig getPredicate()
     {
         return predicate;
@@ -14,14 +14,18 @@
 
 package com.addthis.metrics.reporter.config;
 
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public abstract class AbstractPrometheusReporterConfig extends AbstractHostPortReporterConfig {
     public enum Type {
-        pushgateway, servlet;
+        pushgateway, servlet, httpserver;
     }
 
     protected String name = "prometheus";
@@ -32,6 +36,33 @@ public abstract class AbstractPrometheusReporterConfig extends AbstractHostPortR
     @NotNull
     protected String job;
 
+    protected boolean streaming;
+
+    @Min(0)
+    @Max(65535)
+    protected int port = 9095;
+
+    @Min(1)
+    protected int httpThreads = 2;
+
+    @Min(0)
+    protected long minScrapeInterval;
+
+    @Min(1)
+    protected int pushTimeout = 10000;
+
+    @Min(1)
+    protected int fullPushEvery = 1;
+
+    @javax.validation.constraints.Pattern(
+        regexp = "^(summary|buckets)$",
+        message = "must one of: summary, buckets"
+    )
+    protected String histogramMode = "summary";
+
+    @Valid
+    protected List<HistogramBucketConfig> buckets;
+
     protected Map<String, String> labels = new HashMap<>();
     protected Map<String, String> resolvedLabels = new HashMap<>();
 
@@ -70,6 +101,107 @@ public abstract class AbstractPrometheusReporterConfig extends AbstractHostPortR
         }
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Serve scrapes by writing the text format straight from the registry
+     * rather than through the client library's sample objects.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Port the {@code httpserver} type listens on.
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getHttpThreads() {
+        return httpThreads;
+    }
+
+    /**
+     * Size of the {@code httpserver} type's request pool.
+     */
+    public void setHttpThreads(int httpThreads) {
+        this.httpThreads = httpThreads;
+    }
+
+    public long getMinScrapeInterval() {
+        return minScrapeInterval;
+    }
+
+    /**
+     * Milliseconds during which repeated or concurrent scrapes are served
+     * the previous result instead of collecting the registry again.
+     */
+    public void setMinScrapeInterval(long minScrapeInterval) {
+        this.minScrapeInterval = minScrapeInterval;
+    }
+
+    public int getPushTimeout() {
+        return pushTimeout;
+    }
+
+    /**
+     * Milliseconds each pushgateway gets to accept a push before the
+     * reporter stops waiting for it.
+     */
+    public void setPushTimeout(int pushTimeout) {
+        this.pushTimeout = pushTimeout;
+    }
+
+    public int getFullPushEvery() {
+        return fullPushEvery;
+    }
+
+    /**
+     * Above 1, push everything only every this many ticks and POST just the
+     * families that changed in between.
+     */
+    public void setFullPushEvery(int fullPushEvery) {
+        this.fullPushEvery = fullPushEvery;
+    }
+
+    public String getHistogramMode() {
+        return histogramMode;
+    }
+
+    /**
+     * How histograms and timers are exported:
+     * <dl>
+     *     <dt>summary</dt>
+     *     <dd>six quantiles and a count (default)</dd>
+     *     <dt>buckets</dt>
+     *     <dd>cumulative {@code _bucket} series with the bounds from
+     *     {@code buckets}, plus {@code _sum} and {@code _count}</dd>
+     * </dl>
+     */
+    public void setHistogramMode(String histogramMode) {
+        this.histogramMode = histogramMode;
+    }
+
+    public List<HistogramBucketConfig> getBuckets() {
+        return buckets;
+    }
+
+    /**
+     * Per-pattern bucket bounds for {@code histogramMode: buckets}; the first
+     * matching pattern wins and unmatched metrics use the Prometheus client
+     * defaults.
+     */
+    public void setBuckets(List<HistogramBucketConfig> buckets) {
+        this.buckets = buckets;
+    }
+
     public Map<String, String> getResolvedLabels() {
         return resolvedLabels;
     }
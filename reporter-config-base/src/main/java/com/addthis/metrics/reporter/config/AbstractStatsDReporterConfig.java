@@ -14,6 +14,9 @@
 
 package com.addthis.metrics.reporter.config;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -23,12 +26,66 @@ public class AbstractStatsDReporterConfig extends AbstractHostPortReporterConfig
 {
     private static final Logger log = LoggerFactory.getLogger(AbstractStatsDReporterConfig.class);
 
+    private boolean packed;
+
+    @Min(64)
+    @Max(65507)
+    private int maxPacketSize = 1432;
+
+    @javax.validation.constraints.Pattern(
+        regexp = "^(gauge|delta)$",
+        message = "must one of: gauge, delta"
+    )
+    private String counterMode = "gauge";
+
     @Override
     public List<HostPort> getFullHostList()
     {
         return getHostListAndStringList();
     }
 
+    public boolean isPacked()
+    {
+        return packed;
+    }
+
+    /**
+     * Pack many values into each datagram and send every datagram to all
+     * hosts, instead of running a reporter per host that sends one datagram
+     * per value.
+     */
+    public void setPacked(boolean packed)
+    {
+        this.packed = packed;
+    }
+
+    public int getMaxPacketSize()
+    {
+        return maxPacketSize;
+    }
+
+    /**
+     * Largest datagram a {@code packed} reporter sends, in bytes.
+     */
+    public void setMaxPacketSize(int maxPacketSize)
+    {
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    public String getCounterMode()
+    {
+        return counterMode;
+    }
+
+    /**
+     * {@code gauge} sends counts as gauges every tick, {@code delta} sends
+     * how much they changed as StatsD counters, only when they changed.
+     */
+    public void setCounterMode(String counterMode)
+    {
+        this.counterMode = counterMode;
+    }
+
     protected boolean setup(String className)
     {
         if (!isClassAvailable(className))
@@ -22,6 +22,13 @@ public abstract class AbstractZabbixReporterConfig extends AbstractHostPortRepor
     protected int connectTimeout = 2000;
     @Min(0)
     protected int socketTimeout = 2000;
+    @Min(1)
+    protected int batchSize = 250;
+    @Min(1)
+    protected int parallelism = 1;
+    protected boolean sendUnchanged = true;
+    @Min(0)
+    protected int heartbeatInterval = 600;
 
     protected String name = "zabbix";
     protected String hostName;
@@ -47,6 +54,61 @@ public abstract class AbstractZabbixReporterConfig extends AbstractHostPortRepor
         this.socketTimeout = socketTimeout;
     }
 
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Most items sent to the trapper in one request.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    /**
+     * Most requests of one report in flight at once, each on its own
+     * connection.
+     */
+    public void setParallelism(int parallelism)
+    {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isSendUnchanged()
+    {
+        return sendUnchanged;
+    }
+
+    /**
+     * When false, items are only sent when their value changed or their
+     * heartbeat is due.
+     */
+    public void setSendUnchanged(boolean sendUnchanged)
+    {
+        this.sendUnchanged = sendUnchanged;
+    }
+
+    public int getHeartbeatInterval()
+    {
+        return heartbeatInterval;
+    }
+
+    /**
+     * Seconds after which an unchanged item is sent again when
+     * {@code sendUnchanged} is false; 0 never sends it again.
+     */
+    public void setHeartbeatInterval(int heartbeatInterval)
+    {
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
     public String getName()
     {
         return name;
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics.reporter.config;
+
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+/**
+ * Bucket upper bounds for the histograms and timers whose name matches
+ * {@code pattern}.  Timer bounds are in seconds.
+ */
+public class HistogramBucketConfig
+{
+    @NotNull
+    private String pattern;
+    @NotNull
+    @Size(min = 1)
+    private List<Double> boundaries;
+
+    public HistogramBucketConfig() {}
+
+    public HistogramBucketConfig(String pattern, List<Double> boundaries)
+    {
+        this.pattern = pattern;
+        this.boundaries = boundaries;
+    }
+
+    public String getPattern()
+    {
+        return pattern;
+    }
+
+    public void setPattern(String pattern)
+    {
+        this.pattern = pattern;
+    }
+
+    public List<Double> getBoundaries()
+    {
+        return boundaries;
+    }
+
+    public void setBoundaries(List<Double> boundaries)
+    {
+        this.boundaries = boundaries;
+    }
+}
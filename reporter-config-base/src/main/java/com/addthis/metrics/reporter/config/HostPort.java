@@ -26,6 +26,7 @@ public class HostPort
     @Min(0)
     @Max(65535)
     private int port;
+    private String instance;
 
     public HostPort() {}
 
@@ -54,6 +55,20 @@ public class HostPort
     {
         this.port = port;
     }
+
+    public String getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Carbon instance name of this destination, only used by sharded graphite
+     * reporters to place the host on the hash ring.
+     */
+    public void setInstance(String instance)
+    {
+        this.instance = instance;
+    }
 }
 
 
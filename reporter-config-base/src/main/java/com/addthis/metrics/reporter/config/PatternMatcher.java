@@ -0,0 +1,365 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics.reporter.config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Answers "does any of these regular expressions match the whole name" without
+ * running every regex against every name.
+ * <p>
+ * Patterns that are plain literals, {@code literal.*} prefixes,
+ * {@code .*literal} suffixes or {@code .*literal.*} substrings (with optional
+ * {@code ^}/{@code $} anchors and backslash-escaped punctuation) are answered
+ * with a hash set and character tries.  Everything else is folded into one
+ * alternation regex, so at most one regex runs per name.
+ */
+public class PatternMatcher
+{
+    private static final String META_CHARACTERS = "\\^$.|?*+()[]{}";
+    private static final Pattern GROUP_REFERENCE = Pattern.compile("\\\\(\\d|k<)");
+    private static final Pattern NAMED_GROUP = Pattern.compile("\\(\\?<[^=!]");
+
+    private final Set<String> literals = new HashSet<String>();
+    private final CharTrie prefixes = new CharTrie();
+    private final CharTrie suffixes = new CharTrie();
+    private final CharTrie substrings = new CharTrie();
+    private final List<Pattern> remainder = new ArrayList<Pattern>();
+    private final List<Pattern> originals = new ArrayList<Pattern>();
+
+    private PatternMatcher(List<String> patterns)
+    {
+        List<String> leftover = new ArrayList<String>();
+        for (String pattern : patterns)
+        {
+            // compile everything up front so bad patterns still fail fast
+            originals.add(Pattern.compile(pattern));
+            if (!classify(pattern))
+            {
+                leftover.add(pattern);
+            }
+        }
+        compileRemainder(leftover);
+    }
+
+    public static PatternMatcher compile(List<String> patterns)
+    {
+        return new PatternMatcher(patterns);
+    }
+
+    public static PatternMatcher compile(String pattern)
+    {
+        return new PatternMatcher(Collections.singletonList(pattern));
+    }
+
+    public boolean matches(String name)
+    {
+        if (literals.contains(name))
+        {
+            return true;
+        }
+        if (prefixes.matchesPrefix(name) || suffixes.matchesSuffix(name) || substrings.matchesSubstring(name))
+        {
+            // '.' does not match line terminators, so the wildcard shortcuts
+            // are only exact for names without them
+            return !hasLineTerminator(name) || matchesOriginals(name);
+        }
+        for (int i = 0; i < remainder.size(); i++)
+        {
+            if (remainder.get(i).matcher(name).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesOriginals(String name)
+    {
+        for (Pattern pattern : originals)
+        {
+            if (pattern.matcher(name).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean classify(String pattern)
+    {
+        int start = 0;
+        int end = pattern.length();
+        if (start < end && pattern.charAt(start) == '^')
+        {
+            start++;
+        }
+        if (end > start && pattern.charAt(end - 1) == '$' && !isEscaped(pattern, end - 1))
+        {
+            end--;
+        }
+        boolean leadingWildcard = pattern.startsWith(".*", start) && end - start >= 2;
+        if (leadingWildcard)
+        {
+            start += 2;
+        }
+        boolean trailingWildcard = end - start >= 2 && pattern.startsWith(".*", end - 2)
+                                   && !isEscaped(pattern, end - 2);
+        if (trailingWildcard)
+        {
+            end -= 2;
+        }
+        String literal = unescapeLiteral(pattern, start, end);
+        if (literal == null)
+        {
+            return false;
+        }
+        if (leadingWildcard && trailingWildcard)
+        {
+            substrings.add(literal, false);
+        }
+        else if (leadingWildcard)
+        {
+            suffixes.add(literal, true);
+        }
+        else if (trailingWildcard)
+        {
+            prefixes.add(literal, false);
+        }
+        else
+        {
+            literals.add(literal);
+        }
+        return true;
+    }
+
+    private static boolean isEscaped(String pattern, int index)
+    {
+        int backslashes = 0;
+        for (int i = index - 1; i >= 0 && pattern.charAt(i) == '\\'; i--)
+        {
+            backslashes++;
+        }
+        return (backslashes & 1) == 1;
+    }
+
+    /**
+     * @return the literal text matched by {@code pattern[start, end)}, or null
+     * if that region uses any regex construct besides escaped punctuation
+     */
+    private static String unescapeLiteral(String pattern, int start, int end)
+    {
+        StringBuilder literal = new StringBuilder(end - start);
+        for (int i = start; i < end; i++)
+        {
+            char c = pattern.charAt(i);
+            if (c == '\\')
+            {
+                if (i + 1 >= end)
+                {
+                    return null;
+                }
+                char escaped = pattern.charAt(++i);
+                if (Character.isLetterOrDigit(escaped) || escaped > 127)
+                {
+                    return null;
+                }
+                literal.append(escaped);
+            }
+            else if (META_CHARACTERS.indexOf(c) >= 0)
+            {
+                return null;
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private void compileRemainder(List<String> leftover)
+    {
+        List<String> combinable = new ArrayList<String>();
+        StringBuilder combined = new StringBuilder();
+        for (String pattern : leftover)
+        {
+            // group references cannot survive being renumbered inside an alternation
+            if (GROUP_REFERENCE.matcher(pattern).find() || NAMED_GROUP.matcher(pattern).find())
+            {
+                remainder.add(Pattern.compile(pattern));
+                continue;
+            }
+            if (combined.length() > 0)
+            {
+                combined.append('|');
+            }
+            combined.append("(?:").append(pattern).append(')');
+            combinable.add(pattern);
+        }
+        if (combinable.size() == 1)
+        {
+            remainder.add(0, Pattern.compile(combinable.get(0)));
+        }
+        else if (combinable.size() > 1)
+        {
+            try
+            {
+                remainder.add(0, Pattern.compile(combined.toString()));
+            }
+            catch (PatternSyntaxException e)
+            {
+                for (String pattern : combinable)
+                {
+                    remainder.add(Pattern.compile(pattern));
+                }
+            }
+        }
+    }
+
+    private static boolean hasLineTerminator(String name)
+    {
+        for (int i = 0; i < name.length(); i++)
+        {
+            char c = name.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Minimal immutable-after-build trie.  Children are kept in sorted char
+     * arrays so lookups do not box characters.
+     */
+    private static class CharTrie
+    {
+        private final Node root = new Node();
+        private boolean empty = true;
+
+        void add(String key, boolean reversed)
+        {
+            Node node = root;
+            for (int i = 0; i < key.length(); i++)
+            {
+                char c = reversed ? key.charAt(key.length() - 1 - i) : key.charAt(i);
+                node = node.getOrAddChild(c);
+            }
+            node.terminal = true;
+            empty = false;
+        }
+
+        boolean matchesPrefix(String name)
+        {
+            return !empty && matchesFrom(name, 0);
+        }
+
+        boolean matchesSubstring(String name)
+        {
+            if (empty)
+            {
+                return false;
+            }
+            for (int i = 0; i <= name.length(); i++)
+            {
+                if (matchesFrom(name, i))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matchesSuffix(String name)
+        {
+            if (empty)
+            {
+                return false;
+            }
+            Node node = root;
+            for (int i = name.length() - 1; ; i--)
+            {
+                if (node.terminal)
+                {
+                    return true;
+                }
+                if (i < 0 || (node = node.child(name.charAt(i))) == null)
+                {
+                    return false;
+                }
+            }
+        }
+
+        private boolean matchesFrom(String name, int offset)
+        {
+            Node node = root;
+            for (int i = offset; ; i++)
+            {
+                if (node.terminal)
+                {
+                    return true;
+                }
+                if (i >= name.length() || (node = node.child(name.charAt(i))) == null)
+                {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static class Node
+    {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+
+        Node child(char c)
+        {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node getOrAddChild(char c)
+        {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0)
+            {
+                return children[index];
+            }
+            int insert = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insert);
+            System.arraycopy(children, 0, newChildren, 0, insert);
+            System.arraycopy(keys, insert, newKeys, insert + 1, keys.length - insert);
+            System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+            Node child = new Node();
+            newKeys[insert] = c;
+            newChildren[insert] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
@@ -39,6 +40,8 @@ public class PredicateConfig
     @Size(min=1)
     private List<String> patterns;
     private boolean useQualifiedName;
+    @Min(0)
+    private int cacheSize;
     private Measurement meter;
     private Measurement histogram;
     private Measurement timer;
@@ -92,17 +95,26 @@ public class PredicateConfig
         private Pattern metric;
         @NotNull
         private Pattern measure;
+        private PatternMatcher metricMatcher;
+        private PatternMatcher measureMatcher;
 
 
         public MeasurementPattern(String metric, String measure)
         {
             this.metric = Pattern.compile(metric);
             this.measure = Pattern.compile(measure);
+            this.metricMatcher = PatternMatcher.compile(metric);
+            this.measureMatcher = PatternMatcher.compile(measure);
+        }
+
+        boolean matches(String name, String measurement)
+        {
+            return metricMatcher.matches(name) && measureMatcher.matches(measurement);
         }
     }
 
 
-    private List<Pattern> cPatterns;
+    private PatternMatcher matcher;
     private List<MeasurementPattern> meterPatterns;
     private List<MeasurementPattern> histogramPatterns;
     private List<MeasurementPattern> timerPatterns;
@@ -139,11 +151,7 @@ public class PredicateConfig
     public void setPatterns(List<String> patterns)
     {
         this.patterns = patterns;
-        cPatterns = new ArrayList<Pattern>();
-        for (String s : patterns)
-        {
-            cPatterns.add(Pattern.compile(s));
-        }
+        this.matcher = PatternMatcher.compile(patterns);
     }
 
     public boolean getUseQualifiedName()
@@ -156,6 +164,21 @@ public class PredicateConfig
         this.useQualifiedName = useQualifiedName;
     }
 
+    /**
+     * Maximum number of metric names whose verdict is remembered by the
+     * reporter's filter, or 0 (the default) to evaluate the patterns on
+     * every report.
+     */
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
+    public void setCacheSize(int cacheSize)
+    {
+        this.cacheSize = cacheSize;
+    }
+
     public Measurement getMeter()
     {
         return meter;
@@ -208,25 +231,12 @@ public class PredicateConfig
 
         if (color.equals("black"))
         {
-            for (Pattern pat : cPatterns)
-            {
-                if (pat.matcher(name).matches())
-                {
-                    return false;
-                }
-            }
-            return true;
+            return !matcher.matches(name);
         }
 
         if (color.equals("white"))
         {
-            for (Pattern pat : cPatterns)
-            {
-                if (pat.matcher(name).matches())
-                {
-                    return true;
-                }
-            }
+            return matcher.matches(name);
         }
         return false; // trusting validator
     }
@@ -238,10 +248,7 @@ public class PredicateConfig
         {
             for (int i = 0; i < patterns.size(); i++)
             {
-                Pattern metricPattern = patterns.get(i).metric;
-                Pattern measurePattern = patterns.get(i).measure;
-                if (metricPattern.matcher(name).matches() &&
-                        measurePattern.matcher(measurement).matches())
+                if (patterns.get(i).matches(name, measurement))
                 {
                     return false;
                 }
@@ -253,10 +260,7 @@ public class PredicateConfig
         {
             for (int i = 0; i < patterns.size(); i++)
             {
-                Pattern metricPattern = patterns.get(i).metric;
-                Pattern measurePattern = patterns.get(i).measure;
-                if (metricPattern.matcher(name).matches() &&
-                        measurePattern.matcher(measurement).matches())
+                if (patterns.get(i).matches(name, measurement))
                 {
                     return true;
                 }
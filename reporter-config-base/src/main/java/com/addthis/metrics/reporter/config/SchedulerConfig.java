@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics.reporter.config;
+
+import javax.validation.constraints.Min;
+
+/**
+ * Sizes the executor shared by every configured reporter.  Without it each
+ * reporter (and each host of a multi-host reporter) runs on its own thread.
+ */
+public class SchedulerConfig
+{
+    @Min(1)
+    private int threads = 1;
+
+    public SchedulerConfig() {}
+
+    public SchedulerConfig(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics.reporter.config.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.addthis.metrics.reporter.config.PatternMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-pattern regex loop that PredicateConfig.allowString used to
+ * run against {@link PatternMatcher}, over a registry-sized set of names.
+ * <p>
+ * Run with {@code java -jar reporter-config-benchmarks/target/benchmarks.jar PredicateBenchmark}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredicateBenchmark
+{
+    private static final int NAME_COUNT = 30000;
+
+    @Param({"1", "10", "40"})
+    public int patternCount;
+
+    private String[] names;
+    private List<Pattern> regexes;
+    private PatternMatcher matcher;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        List<String> patterns = new ArrayList<String>();
+        for (int i = 0; i < patternCount; i++)
+        {
+            // the shapes seen in real configs, plus the odd true regex
+            switch (i % 5)
+            {
+                case 0:
+                    patterns.add(".*JMXONLY" + i + "$");
+                    break;
+                case 1:
+                    patterns.add("^com\\.example\\.service" + i + "\\..*");
+                    break;
+                case 2:
+                    patterns.add("com.example.exact.Metric" + i);
+                    break;
+                case 3:
+                    patterns.add(".*\\.debug" + i + "\\..*");
+                    break;
+                default:
+                    patterns.add("^org\\.example\\.(read|write)" + i + "\\.[a-z]+Latency$");
+                    break;
+            }
+        }
+        regexes = new ArrayList<Pattern>();
+        for (String pattern : patterns)
+        {
+            regexes.add(Pattern.compile(pattern));
+        }
+        matcher = PatternMatcher.compile(patterns);
+
+        names = new String[NAME_COUNT];
+        for (int i = 0; i < NAME_COUNT; i++)
+        {
+            int n = random.nextInt(patternCount + 20);
+            names[i] = "com.example.service" + n + ".handler" + random.nextInt(100)
+                       + (random.nextInt(50) == 0 ? ".debug" + n + ".Requests" : ".Requests")
+                       + (random.nextInt(50) == 0 ? "JMXONLY" + n : "");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public int regexLoop()
+    {
+        int allowed = 0;
+        for (String name : names)
+        {
+            for (Pattern pattern : regexes)
+            {
+                if (pattern.matcher(name).matches())
+                {
+                    allowed++;
+                    break;
+                }
+            }
+        }
+        return allowed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAME_COUNT)
+    public int compiledMatcher()
+    {
+        int allowed = 0;
+        for (String name : names)
+        {
+            if (matcher.matches(name))
+            {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+}
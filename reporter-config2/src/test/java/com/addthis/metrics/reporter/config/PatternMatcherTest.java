@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics.reporter.config;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.ImmutableList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PatternMatcherTest
+{
+    private static final List<String> PATTERNS = ImmutableList.of(
+            ".*JMXONLY$", "^bad.+", "^good.*", "exact\\.name", ".*mid.*", "a|b", "(x)\\1", "foo\\.*", "\\$lit\\$");
+
+    private static final List<String> NAMES = ImmutableList.of(
+            "fooJMXONLY", "JMXONLY", "xJMXONLYy", "bad", "badx", "good", "goodness", "exact.name", "exactxname",
+            "amidb", "mid", "a", "b", "xx", "", "foo...", "foo.", "$lit$", "z\nJMXONLY", "good\nx", "q");
+
+    @Test
+    public void shortcuts()
+    {
+        PatternMatcher matcher = PatternMatcher.compile(ImmutableList.of(".*JMXONLY$", "^com\\.example\\..*", "exact"));
+        assertTrue(matcher.matches("com.example.foo.CoolMetric_JMXONLY"));
+        assertTrue(matcher.matches("com.example.foo.CoolMetric"));
+        assertTrue(matcher.matches("exact"));
+        assertFalse(matcher.matches("exactly"));
+        assertFalse(matcher.matches("org.example.foo.CoolMetric"));
+    }
+
+    @Test
+    public void lineTerminatorsAreNotWildcards()
+    {
+        PatternMatcher matcher = PatternMatcher.compile(".*JMXONLY$");
+        assertFalse(matcher.matches("foo\nJMXONLY"));
+    }
+
+    @Test
+    public void agreesWithRegexLoop()
+    {
+        for (int i = 0; i < PATTERNS.size(); i++)
+        {
+            for (int j = i; j < PATTERNS.size(); j++)
+            {
+                List<String> patterns = PATTERNS.subList(i, j + 1);
+                PatternMatcher matcher = PatternMatcher.compile(patterns);
+                for (String name : NAMES)
+                {
+                    assertEquals(patterns + " " + name, regexLoop(patterns, name), matcher.matches(name));
+                }
+            }
+        }
+    }
+
+    private static boolean regexLoop(List<String> patterns, String name)
+    {
+        for (String pattern : patterns)
+        {
+            if (Pattern.compile(pattern).matcher(name).matches())
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
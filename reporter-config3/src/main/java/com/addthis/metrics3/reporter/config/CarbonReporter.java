@@ -0,0 +1,369 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.addthis.metrics3.reporter.config.graphite.CarbonEncoder;
+import com.addthis.metrics3.reporter.config.graphite.CarbonHashRing;
+import com.addthis.metrics3.reporter.config.graphite.CarbonProtocol;
+import com.addthis.metrics3.reporter.config.graphite.CarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.LineEncoder;
+import com.addthis.metrics3.reporter.config.graphite.SpoolingCarbonSender;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reports the registry to one or more carbon hosts with the same paths and
+ * values as {@link com.codahale.metrics.graphite.GraphiteReporter}.
+ * <p>
+ * Each tick walks the registry and encodes the plaintext payload once, then
+ * writes the same bytes to every host in parallel.  Every host has its own
+ * sender and connection state; a host that has not finished within the
+ * timeout is logged and skipped on later ticks until it does, so one slow
+ * host neither delays the others nor piles up connections.  A skipped host
+ * with a {@link SpoolingCarbonSender} has the tick's payload spooled instead
+ * of dropped.
+ * <p>
+ * With a {@link CarbonHashRing} every path is sent to one host only, picked
+ * the way carbon-relay's consistent hashing would, and each host gets its own
+ * payload.
+ * <p>
+ * Values go out in the plaintext protocol unless
+ * {@link #setProtocol(CarbonProtocol, int)} picks the pickle receiver.
+ * <p>
+ * Paths are rendered and encoded once per metric and measurement and kept in
+ * a {@link MetricPathCache}, along with the host they shard to, so a tick
+ * only copies path bytes and formats the values.
+ */
+public class CarbonReporter extends ScheduledReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarbonReporter.class);
+
+    static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final String[] MEASUREMENTS = {
+            null, "count", "max", "mean", "min", "stddev", "p50", "p75", "p95", "p98", "p99", "p999",
+            "m1_rate", "m5_rate", "m15_rate", "mean_rate"};
+    private static final int VALUE = 0;
+    private static final int COUNT = 1;
+    private static final int MAX = 2;
+    private static final int MEAN = 3;
+    private static final int MIN = 4;
+    private static final int STDDEV = 5;
+    private static final int P50 = 6;
+    private static final int P75 = 7;
+    private static final int P95 = 8;
+    private static final int P98 = 9;
+    private static final int P99 = 10;
+    private static final int P999 = 11;
+    private static final int M1_RATE = 12;
+    private static final int M5_RATE = 13;
+    private static final int M15_RATE = 14;
+    private static final int MEAN_RATE = 15;
+
+    private final List<Host> hosts = new ArrayList<>();
+    private final MetricRegistry registry;
+    private final MetricPathCache paths;
+    private final Clock clock;
+    private final ExecutorService sendExecutor;
+    private final int timeoutMillis;
+    private final CarbonHashRing ring;
+    private final CarbonEncoder[] encoders;
+    private volatile boolean stopped;
+
+    public CarbonReporter(List<CarbonSender> senders,
+                          MetricRegistry registry,
+                          String prefix,
+                          MetricFilter filter,
+                          TimeUnit rateUnit,
+                          TimeUnit durationUnit,
+                          Clock clock,
+                          int timeoutMillis) {
+        this(senders, null, registry, prefix, filter, rateUnit, durationUnit, clock, timeoutMillis);
+    }
+
+    /**
+     * @param ring shards paths across the senders, whose order must match
+     *             the ring's nodes; {@code null} sends everything everywhere
+     */
+    public CarbonReporter(List<CarbonSender> senders,
+                          CarbonHashRing ring,
+                          MetricRegistry registry,
+                          String prefix,
+                          MetricFilter filter,
+                          TimeUnit rateUnit,
+                          TimeUnit durationUnit,
+                          Clock clock,
+                          int timeoutMillis) {
+
+        super(registry, "graphite-reporter", filter, rateUnit, durationUnit);
+
+        for (CarbonSender sender : senders) {
+            hosts.add(new Host(sender));
+        }
+        this.ring = ring;
+        this.encoders = new CarbonEncoder[ring == null ? 1 : hosts.size()];
+        setProtocol(CarbonProtocol.plaintext, DEFAULT_BATCH_SIZE);
+        this.registry = registry;
+        this.paths = new MetricPathCache(prefix, MEASUREMENTS) {
+            @Override
+            protected String render(String prefix, String name, String suffix) {
+                return LineEncoder.sanitize(super.render(prefix, name, suffix));
+            }
+        };
+        registry.addListener(paths);
+        this.clock = clock;
+        this.timeoutMillis = timeoutMillis;
+        this.sendExecutor = Executors.newFixedThreadPool(Math.max(1, hosts.size()),
+                new ReporterScheduler.DaemonThreadFactory("graphite-send"));
+    }
+
+    /**
+     * Must be called before the reporter is started.
+     *
+     * @param batchSize values per frame, for protocols that have frames
+     */
+    public void setProtocol(CarbonProtocol protocol, int batchSize) {
+        for (int i = 0; i < encoders.length; i++) {
+            encoders[i] = protocol.newEncoder(8192 / encoders.length, batchSize);
+        }
+    }
+
+    @Override
+    public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+
+        if (stopped) {
+            // a shared executor may still tick a stopped reporter
+            return;
+        }
+        byte[][] payloads = encode(gauges, counters, histograms, meters, timers);
+
+        List<Future<?>> sends = new ArrayList<>(hosts.size());
+        List<Host> sent = new ArrayList<>(hosts.size());
+        for (int i = 0; i < hosts.size(); i++) {
+            Host host = hosts.get(i);
+            byte[] payload = payloads[ring == null ? 0 : i];
+            if (payload.length == 0) {
+                continue;
+            }
+            if (!host.inFlight.compareAndSet(false, true)) {
+                if (host.sender instanceof SpoolingCarbonSender) {
+                    logger.warn("spooling report to {}, previous report has not finished", host.sender.getAddress());
+                    ((SpoolingCarbonSender) host.sender).defer(payload);
+                } else {
+                    logger.warn("skipping report to {}, previous report has not finished", host.sender.getAddress());
+                }
+                continue;
+            }
+            try {
+                sends.add(sendExecutor.submit(new SendTask(host, payload)));
+            } catch (RejectedExecutionException ex) {
+                // stopped during this tick
+                host.inFlight.set(false);
+                continue;
+            }
+            sent.add(host);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < sends.size(); i++) {
+            try {
+                sends.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                logger.warn("report to {} did not finish within {} ms", sent.get(i).sender.getAddress(),
+                            timeoutMillis);
+            } catch (ExecutionException ex) {
+                // SendTask logs its own failures
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private byte[][] encode(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                          SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                          SortedMap<String, Timer> timers) {
+        long timestamp = clock.getTime() / 1000;
+        for (CarbonEncoder encoder : encoders) {
+            encoder.reset();
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            Object value = entry.getValue().getValue();
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                add(paths.get(entry.getKey()), VALUE, ((Number) value).longValue(), timestamp);
+            } else if (value instanceof Number) {
+                add(paths.get(entry.getKey()), VALUE, ((Number) value).doubleValue(), timestamp);
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            add(paths.get(entry.getKey()), COUNT, entry.getValue().getCount(), timestamp);
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            MetricPathCache.Paths metric = paths.get(entry.getKey());
+            add(metric, COUNT, histogram.getCount(), timestamp);
+            addSnapshot(metric, histogram.getSnapshot(), 1.0, timestamp);
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            addMetered(paths.get(entry.getKey()), entry.getValue(), timestamp);
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            MetricPathCache.Paths metric = paths.get(entry.getKey());
+            addSnapshot(metric, timer.getSnapshot(), convertDuration(1), timestamp);
+            addMetered(metric, timer, timestamp);
+        }
+        byte[][] payloads = new byte[encoders.length][];
+        for (int i = 0; i < encoders.length; i++) {
+            payloads[i] = encoders[i].toByteArray();
+        }
+        return payloads;
+    }
+
+    /**
+     * @param factor 1 to keep the histogram's longs as they are, otherwise
+     *               the duration conversion applied to a timer's nanoseconds
+     */
+    private void addSnapshot(MetricPathCache.Paths metric, Snapshot snapshot, double factor, long timestamp) {
+        if (factor == 1.0) {
+            add(metric, MAX, snapshot.getMax(), timestamp);
+        } else {
+            add(metric, MAX, snapshot.getMax() * factor, timestamp);
+        }
+        add(metric, MEAN, snapshot.getMean() * factor, timestamp);
+        if (factor == 1.0) {
+            add(metric, MIN, snapshot.getMin(), timestamp);
+        } else {
+            add(metric, MIN, snapshot.getMin() * factor, timestamp);
+        }
+        add(metric, STDDEV, snapshot.getStdDev() * factor, timestamp);
+        add(metric, P50, snapshot.getMedian() * factor, timestamp);
+        add(metric, P75, snapshot.get75thPercentile() * factor, timestamp);
+        add(metric, P95, snapshot.get95thPercentile() * factor, timestamp);
+        add(metric, P98, snapshot.get98thPercentile() * factor, timestamp);
+        add(metric, P99, snapshot.get99thPercentile() * factor, timestamp);
+        add(metric, P999, snapshot.get999thPercentile() * factor, timestamp);
+    }
+
+    private void addMetered(MetricPathCache.Paths metric, Metered meter, long timestamp) {
+        add(metric, COUNT, meter.getCount(), timestamp);
+        add(metric, M1_RATE, convertRate(meter.getOneMinuteRate()), timestamp);
+        add(metric, M5_RATE, convertRate(meter.getFiveMinuteRate()), timestamp);
+        add(metric, M15_RATE, convertRate(meter.getFifteenMinuteRate()), timestamp);
+        add(metric, MEAN_RATE, convertRate(meter.getMeanRate()), timestamp);
+    }
+
+    private void add(MetricPathCache.Paths metric, int measurement, long value, long timestamp) {
+        byte[] path = metric.get(measurement);
+        encoderFor(metric, measurement, path).add(path, value, timestamp);
+    }
+
+    private void add(MetricPathCache.Paths metric, int measurement, double value, long timestamp) {
+        byte[] path = metric.get(measurement);
+        encoderFor(metric, measurement, path).add(path, value, timestamp);
+    }
+
+    private CarbonEncoder encoderFor(MetricPathCache.Paths metric, int measurement, byte[] path) {
+        if (ring == null) {
+            return encoders[0];
+        }
+        int node = metric.getRoute(measurement);
+        if (node < 0) {
+            node = ring.getNode(path);
+            metric.setRoute(measurement, node);
+        }
+        return encoders[node];
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        super.stop();
+        registry.removeListener(paths);
+        sendExecutor.shutdown();
+        for (Host host : hosts) {
+            try {
+                host.sender.close();
+            } catch (IOException ex) {
+                logger.warn("failed to close connection to {}", host.sender.getAddress(), ex);
+            }
+        }
+    }
+
+    private static class Host {
+        final CarbonSender sender;
+        final AtomicBoolean inFlight = new AtomicBoolean();
+
+        Host(CarbonSender sender) {
+            this.sender = sender;
+        }
+    }
+
+    private static class SendTask implements Callable<Void> {
+        private final Host host;
+        private final byte[] payload;
+
+        SendTask(Host host, byte[] payload) {
+            this.host = host;
+            this.payload = payload;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                host.sender.send(payload, 0, payload.length);
+                return null;
+            } catch (IOException | RuntimeException ex) {
+                logger.error("failed to report graphite metrics to {}", host.sender.getAddress(), ex);
+                throw ex;
+            } finally {
+                host.inFlight.set(false);
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ public class ConsoleReporterConfig extends AbstractConsoleReporterConfig impleme
     private static final Logger log = LoggerFactory.getLogger(ConsoleReporterConfig.class);
 
     private ConsoleReporter reporter;
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     @Override
     public boolean enable(MetricRegistry registry)
@@ -41,11 +42,11 @@ public class ConsoleReporterConfig extends AbstractConsoleReporterConfig impleme
             reporter = ConsoleReporter.forRegistry(registry)
                             .convertRatesTo(getRealRateunit())
                             .convertDurationsTo(getRealDurationunit())
-                            .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+                            .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
                             .outputTo(stream)
                             .build();
 
-            reporter.start(getPeriod(), getRealTimeunit());
+            reporterScheduler.schedule(reporter, this, registry);
         }
         catch (Exception e)
         {
@@ -61,5 +62,8 @@ public class ConsoleReporterConfig extends AbstractConsoleReporterConfig impleme
         }
     }
 
-
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
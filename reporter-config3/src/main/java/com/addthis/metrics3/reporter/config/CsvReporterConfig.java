@@ -29,6 +29,7 @@ public class CsvReporterConfig extends AbstractCsvReporterConfig implements Metr
     private static final Logger log = LoggerFactory.getLogger(CsvReporterConfig.class);
 
     private CsvReporter reporter;
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     @Override
     public boolean enable(MetricRegistry registry)
@@ -48,10 +49,10 @@ public class CsvReporterConfig extends AbstractCsvReporterConfig implements Metr
            reporter = CsvReporter.forRegistry(registry)
                             .convertRatesTo(getRealRateunit())
                             .convertDurationsTo(getRealDurationunit())
-                            .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+                            .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
                             .build(foutDir);
 
-            reporter.start(getPeriod(), getRealTimeunit());
+            reporterScheduler.schedule(reporter, this, registry);
         }
         catch (Exception e)
         {
@@ -67,5 +68,8 @@ public class CsvReporterConfig extends AbstractCsvReporterConfig implements Metr
         }
     }
 
-
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
@@ -32,6 +32,7 @@ public class GangliaReporterConfig extends AbstractGangliaReporterConfig impleme
     private static final Logger log = LoggerFactory.getLogger(GangliaReporterConfig.class);
 
     private GangliaReporter reporter;
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     private void enableMetrics3(HostPort hostPort, MetricRegistry registry) throws IOException {
         /**
@@ -42,11 +43,11 @@ public class GangliaReporterConfig extends AbstractGangliaReporterConfig impleme
         .convertRatesTo(getRealRateunit())
         .convertDurationsTo(getRealDurationunit())
         .prefixedWith(groupPrefix)
-        .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+        .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
         .build(new GMetric(hostPort.getHost(), hostPort.getPort(),
                 GMetric.UDPAddressingMode.UNICAST, 1));
 
-        reporter.start(getPeriod(), getRealTimeunit());
+        reporterScheduler.schedule(reporter, this, registry);
     }
 
     @Override
@@ -80,5 +81,8 @@ public class GangliaReporterConfig extends AbstractGangliaReporterConfig impleme
         }
     }
 
-
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
@@ -14,13 +14,26 @@
 
 package com.addthis.metrics3.reporter.config;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.addthis.metrics.reporter.config.AbstractGraphiteReporterConfig;
 import com.addthis.metrics.reporter.config.HostPort;
+import com.addthis.metrics3.reporter.config.graphite.CarbonHashRing;
+import com.addthis.metrics3.reporter.config.graphite.CarbonProtocol;
+import com.addthis.metrics3.reporter.config.graphite.CarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.CarbonSpool;
+import com.addthis.metrics3.reporter.config.graphite.PersistentTcpCarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.SpoolingCarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.TcpCarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.UdpCarbonSender;
+import com.codahale.metrics.Clock;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.graphite.Graphite;
 import com.codahale.metrics.graphite.GraphiteReporter;
 
@@ -31,23 +44,109 @@ public class GraphiteReporterConfig extends AbstractGraphiteReporterConfig imple
 {
     private static final Logger log = LoggerFactory.getLogger(GraphiteReporterConfig.class);
 
-    private GraphiteReporter reporter;
+    private final List<ScheduledReporter> reporters = new ArrayList<>();
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     private void enableMetrics3(HostPort hostPort, MetricRegistry registry)
     {
-        reporter = GraphiteReporter.forRegistry(registry)
+        GraphiteReporter reporter = GraphiteReporter.forRegistry(registry)
                 .convertRatesTo(getRealRateunit())
                 .convertDurationsTo(getRealDurationunit())
                 .prefixedWith(getResolvedPrefix())
-                .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+                .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
                 .build(new Graphite(new InetSocketAddress(hostPort.getHost(),
                         hostPort.getPort())));
-        reporter.start(getPeriod(), getRealTimeunit());
+        reporters.add(reporter);
+        reporterScheduler.schedule(reporter, this, registry);
+    }
+
+    private void enableCarbon(List<HostPort> hosts, MetricRegistry registry) throws IOException
+    {
+        List<CarbonSender> senders = new ArrayList<>();
+        List<String> servers = new ArrayList<>();
+        List<String> instances = new ArrayList<>();
+        try
+        {
+            for (HostPort hostPort : hosts)
+            {
+                senders.add(createSender(hostPort));
+                servers.add(hostPort.getHost());
+                instances.add(hostPort.getInstance());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // release the spool files opened so far
+            for (CarbonSender sender : senders)
+            {
+                try
+                {
+                    sender.close();
+                }
+                catch (IOException closeFailure)
+                {
+                    log.warn("Failed to close sender to {}", sender.getAddress(), closeFailure);
+                }
+            }
+            throw e;
+        }
+        CarbonHashRing ring = isShard() ? new CarbonHashRing(servers, instances) : null;
+        CarbonReporter reporter = new CarbonReporter(senders, ring, registry, getResolvedPrefix(),
+                MetricFilterTransformer.generateFilter(getPredicate(), registry),
+                getRealRateunit(), getRealDurationunit(), Clock.defaultClock(),
+                CarbonReporter.DEFAULT_TIMEOUT_MILLIS);
+        reporter.setProtocol(CarbonProtocol.valueOf(getProtocol()), getBatchSize());
+        reporters.add(reporter);
+        reporterScheduler.schedule(reporter, this, registry);
+    }
+
+    private CarbonSender createSender(HostPort hostPort) throws IOException
+    {
+        CarbonSender sender = createTransport(hostPort);
+        if (getSpoolDirectory() == null)
+        {
+            return sender;
+        }
+        File directory = new File(getSpoolDirectory());
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot create spool directory " + directory);
+        }
+        String name = (hostPort.getHost() + "-" + hostPort.getPort()).replaceAll("[^A-Za-z0-9._-]", "_");
+        CarbonSpool spool = new CarbonSpool(new File(directory, "graphite-" + name + ".spool"), getSpoolSize());
+        return new SpoolingCarbonSender(sender, spool, getSpoolReplayRate(), getRealTimeunit().toMillis(getPeriod()));
+    }
+
+    private CarbonSender createTransport(HostPort hostPort)
+    {
+        switch (getTransport())
+        {
+            case "tcp-persistent":
+                return new PersistentTcpCarbonSender(hostPort.getHost(), hostPort.getPort(),
+                        CarbonReporter.DEFAULT_TIMEOUT_MILLIS);
+            case "udp":
+                return new UdpCarbonSender(hostPort.getHost(), hostPort.getPort(),
+                        UdpCarbonSender.DEFAULT_MAX_PACKET_SIZE);
+            default:
+                return new TcpCarbonSender(hostPort.getHost(), hostPort.getPort(),
+                        CarbonReporter.DEFAULT_TIMEOUT_MILLIS);
+        }
+    }
+
+    private boolean isShard()
+    {
+        return "shard".equals(getDistribution());
+    }
+
+    private boolean usesCarbonReporter()
+    {
+        return isFanout() || isShard() || !"plaintext".equals(getProtocol()) || !"tcp".equals(getTransport())
+               || getSpoolDirectory() != null;
     }
 
     @Override
     public void report() {
-        if (reporter != null) {
+        for (ScheduledReporter reporter : reporters) {
             reporter.report();
         }
     }
@@ -55,12 +154,33 @@ public class GraphiteReporterConfig extends AbstractGraphiteReporterConfig imple
     @Override
     public boolean enable(MetricRegistry registry)
     {
-        boolean success = setup("com.codahale.metrics.graphite.GraphiteReporter");
+        boolean success = setup(usesCarbonReporter() ? "com.codahale.metrics.ScheduledReporter"
+                                           : "com.codahale.metrics.graphite.GraphiteReporter");
         if (!success)
         {
             return false;
         }
         List<HostPort> hosts = getFullHostList();
+        if ("udp".equals(getTransport()) && "pickle".equals(getProtocol()))
+        {
+            log.error("Carbon only accepts the pickle protocol over tcp, cannot enable GraphiteReporter");
+            return false;
+        }
+        if (usesCarbonReporter())
+        {
+            log.info("Enabling GraphiteReporter to {} hosts, distribution {}, protocol {}, transport {}",
+                     new Object[]{hosts.size(), getDistribution(), getProtocol(), getTransport()});
+            try
+            {
+                enableCarbon(hosts, registry);
+            }
+            catch (Exception e)
+            {
+                log.error("Failed to enable GraphiteReporter", e);
+                return false;
+            }
+            return true;
+        }
         for (HostPort hostPort : hosts)
         {
             log.info("Enabling GraphiteReporter to {}:{}", new Object[]{hostPort.getHost(), hostPort.getPort()});
@@ -77,4 +197,8 @@ public class GraphiteReporterConfig extends AbstractGraphiteReporterConfig imple
         return true;
     }
 
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
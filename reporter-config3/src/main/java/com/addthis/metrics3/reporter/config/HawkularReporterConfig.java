@@ -38,6 +38,7 @@ public class HawkularReporterConfig extends AbstractHostPortReporterConfig imple
 
     private static final Logger log = LoggerFactory.getLogger(HawkularReporterConfig.class);
     private HawkularReporter reporter;
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     @Valid
     private String uri;
@@ -187,9 +188,9 @@ public class HawkularReporterConfig extends AbstractHostPortReporterConfig imple
                     .withNullableConfig(this)
                     .convertRatesTo(getRealRateunit())
                     .convertDurationsTo(getRealDurationunit())
-                    .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+                    .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
                     .build();
-            reporter.start(getPeriod(), getRealTimeunit());
+            reporterScheduler.schedule(reporter, this, registry);
         }
         catch (Exception e) {
             log.error("Failed to enable HawkularReporter", e);
@@ -197,4 +198,8 @@ public class HawkularReporterConfig extends AbstractHostPortReporterConfig imple
         }
         return true;
     }
+
+    void setReporterScheduler(ReporterScheduler reporterScheduler) {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
@@ -33,6 +33,7 @@ public class InfluxDBReporterConfig extends AbstractInfluxDBReporterConfig imple
     private static final Logger log = LoggerFactory.getLogger(InfluxDBReporterConfig.class);
 
     private InfluxDbReporter reporter;
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     private void enableMetrics3(HostPort hostPort, MetricRegistry registry) throws Exception
     {
@@ -42,9 +43,9 @@ public class InfluxDBReporterConfig extends AbstractInfluxDBReporterConfig imple
         reporter = InfluxDbReporter.forRegistry(registry).convertRatesTo(getRealRateunit())
             .convertDurationsTo(getRealDurationunit()).withTags(getResolvedTags())
             .measurementMappings(getMeasurementMappings())
-            .filter(MetricFilterTransformer.generateFilter(getPredicate())).build(influxDbSender);
+            .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry)).build(influxDbSender);
 
-        reporter.start(getPeriod(), getRealTimeunit());
+        reporterScheduler.schedule(reporter, this, registry);
     }
 
     @Override
@@ -100,4 +101,9 @@ public class InfluxDBReporterConfig extends AbstractInfluxDBReporterConfig imple
             return true;
         }
     }
+
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
@@ -14,9 +14,12 @@
 
 package com.addthis.metrics3.reporter.config;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import com.addthis.metrics.reporter.config.PredicateConfig;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +41,15 @@ public class MetricFilterTransformer
         @Override
         public boolean matches(String name, Metric metric)
         {
-            log.trace("Checking Metric name: {} {}", new Object[] {name, unqualifyMetricName(name)});
+            return evaluate(name);
+        }
+
+        boolean evaluate(String name)
+        {
+            if (log.isTraceEnabled())
+            {
+                log.trace("Checking Metric name: {} {}", name, unqualifyMetricName(name));
+            }
             if (predicate.getUseQualifiedName())
             {
                 return predicate.allowString(name);
@@ -64,6 +75,53 @@ public class MetricFilterTransformer
 
     }
 
+    /**
+     * Remembers the verdict for up to {@code cacheSize} metric names.  Names
+     * are stable for the life of a metric, so once warm a lookup is a single
+     * map probe.  Entries are dropped when the metric is removed from the
+     * registry; once full, further names are evaluated uncached.
+     */
+    private static class CachingPredicateConfigFilter extends PredicateConfigFilter
+    {
+        private final AtomicInteger size = new AtomicInteger();
+        private final int cacheSize;
+        final MetricNameCache<Boolean> verdicts = new MetricNameCache<Boolean>()
+        {
+            @Override
+            public Boolean remove(String name)
+            {
+                Boolean removed = super.remove(name);
+                if (removed != null)
+                {
+                    size.decrementAndGet();
+                }
+                return removed;
+            }
+        };
+
+        CachingPredicateConfigFilter(PredicateConfig predicate, int cacheSize)
+        {
+            super(predicate);
+            this.cacheSize = cacheSize;
+        }
+
+        @Override
+        public boolean matches(String name, Metric metric)
+        {
+            Boolean verdict = verdicts.get(name);
+            if (verdict != null)
+            {
+                return verdict;
+            }
+            boolean allowed = evaluate(name);
+            if (size.get() < cacheSize && verdicts.putIfAbsent(name, allowed ? Boolean.TRUE : Boolean.FALSE) == null)
+            {
+                size.incrementAndGet();
+            }
+            return allowed;
+        }
+    }
+
     public static MetricFilter generateFilter(PredicateConfig predicate)
     {
         if (predicate == null)
@@ -76,4 +134,20 @@ public class MetricFilterTransformer
         }
     }
 
+    /**
+     * Like {@link #generateFilter(PredicateConfig)}, but when the predicate
+     * has a {@code cacheSize} the verdicts are cached per metric name and
+     * invalidated by a listener on {@code registry}.
+     */
+    public static MetricFilter generateFilter(PredicateConfig predicate, MetricRegistry registry)
+    {
+        if (predicate == null || predicate.getCacheSize() <= 0 || registry == null)
+        {
+            return generateFilter(predicate);
+        }
+        CachingPredicateConfigFilter filter = new CachingPredicateConfigFilter(predicate, predicate.getCacheSize());
+        registry.addListener(filter.verdicts);
+        return filter;
+    }
+
 }
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+/**
+ * Sorted, pre-filtered view of a registry kept up to date by a
+ * {@link MetricRegistryListener}.
+ * <p>
+ * {@link com.codahale.metrics.ScheduledReporter#report()} copies and sorts
+ * every matching metric into fresh TreeMaps on each tick.  An index applies
+ * the filter once when a metric is registered, so a tick only iterates maps
+ * that change when metrics are added or removed.  The views are read-only and
+ * safe to iterate while the registry changes.
+ */
+public class MetricIndex implements MetricRegistryListener
+{
+    private final MetricFilter filter;
+    private final ConcurrentSkipListMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private final ConcurrentSkipListMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+    private final ConcurrentSkipListMap<String, Meter> meters = new ConcurrentSkipListMap<String, Meter>();
+    private final ConcurrentSkipListMap<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+    private final SortedMap<String, Gauge> gaugeView = Collections.unmodifiableSortedMap(gauges);
+    private final SortedMap<String, Counter> counterView = Collections.unmodifiableSortedMap(counters);
+    private final SortedMap<String, Histogram> histogramView = Collections.unmodifiableSortedMap(histograms);
+    private final SortedMap<String, Meter> meterView = Collections.unmodifiableSortedMap(meters);
+    private final SortedMap<String, Timer> timerView = Collections.unmodifiableSortedMap(timers);
+
+    public MetricIndex(MetricFilter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Builds an index of {@code registry}.  Metrics already registered are
+     * indexed immediately.
+     */
+    public static MetricIndex forRegistry(MetricRegistry registry, MetricFilter filter)
+    {
+        MetricIndex index = new MetricIndex(filter);
+        registry.addListener(index);
+        return index;
+    }
+
+    public SortedMap<String, Gauge> getGauges()
+    {
+        return gaugeView;
+    }
+
+    public SortedMap<String, Counter> getCounters()
+    {
+        return counterView;
+    }
+
+    public SortedMap<String, Histogram> getHistograms()
+    {
+        return histogramView;
+    }
+
+    public SortedMap<String, Meter> getMeters()
+    {
+        return meterView;
+    }
+
+    public SortedMap<String, Timer> getTimers()
+    {
+        return timerView;
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge)
+    {
+        if (filter.matches(name, gauge))
+        {
+            gauges.put(name, gauge);
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name)
+    {
+        gauges.remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter)
+    {
+        if (filter.matches(name, counter))
+        {
+            counters.put(name, counter);
+        }
+    }
+
+    @Override
+    public void onCounterRemoved(String name)
+    {
+        counters.remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram)
+    {
+        if (filter.matches(name, histogram))
+        {
+            histograms.put(name, histogram);
+        }
+    }
+
+    @Override
+    public void onHistogramRemoved(String name)
+    {
+        histograms.remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter)
+    {
+        if (filter.matches(name, meter))
+        {
+            meters.put(name, meter);
+        }
+    }
+
+    @Override
+    public void onMeterRemoved(String name)
+    {
+        meters.remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer)
+    {
+        if (filter.matches(name, timer))
+        {
+            timers.put(name, timer);
+        }
+    }
+
+    @Override
+    public void onTimerRemoved(String name)
+    {
+        timers.remove(name);
+    }
+}
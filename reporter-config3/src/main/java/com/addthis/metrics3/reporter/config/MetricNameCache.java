@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.MetricRegistryListener;
+
+/**
+ * Values derived from metric names, dropped when the metric is removed from
+ * a registry this cache is registered with as a listener.
+ * <p>
+ * Registries notify listeners after the fact, so a lookup can still find the
+ * entry of a metric that was just removed and replaced by another one under
+ * the same name.  Values derived from more than the name, such as the
+ * metric's type, should be checked against the metric they are used with and
+ * rebuilt when they no longer match.
+ */
+public class MetricNameCache<V> extends MetricRegistryListener.Base
+{
+    private final ConcurrentMap<String, V> entries = new ConcurrentHashMap<String, V>();
+
+    public V get(String name)
+    {
+        return entries.get(name);
+    }
+
+    public void put(String name, V value)
+    {
+        entries.put(name, value);
+    }
+
+    /**
+     * @return the value already cached for {@code name}, or null if
+     *         {@code value} was cached
+     */
+    public V putIfAbsent(String name, V value)
+    {
+        return entries.putIfAbsent(name, value);
+    }
+
+    /**
+     * Called for every metric removed from the registry.
+     *
+     * @return the value dropped, or null
+     */
+    public V remove(String name)
+    {
+        return entries.remove(name);
+    }
+
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    @Override
+    public void onGaugeRemoved(String name)
+    {
+        remove(name);
+    }
+
+    @Override
+    public void onCounterRemoved(String name)
+    {
+        remove(name);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name)
+    {
+        remove(name);
+    }
+
+    @Override
+    public void onMeterRemoved(String name)
+    {
+        remove(name);
+    }
+
+    @Override
+    public void onTimerRemoved(String name)
+    {
+        remove(name);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Fully rendered, encoded paths of every measurement a reporter sends for a
+ * metric, so a tick copies cached bytes instead of concatenating
+ * {@code prefix + name + suffix} for every value.
+ * <p>
+ * Each reporter passes its own table of measurement suffixes and refers to
+ * measurements by their index in it; a {@code null} suffix is the bare
+ * metric name.  Paths are rendered on first use by {@link #render} and
+ * encoded as UTF-8.  Entries are dropped when their metric is removed from
+ * the registry.
+ */
+public class MetricPathCache extends MetricNameCache<MetricPathCache.Paths>
+{
+    private final String prefix;
+    private final String[] suffixes;
+
+    public MetricPathCache(String prefix, String[] suffixes)
+    {
+        this.prefix = prefix;
+        this.suffixes = suffixes.clone();
+    }
+
+    /**
+     * Builds a cache that forgets metrics removed from {@code registry}.
+     */
+    public static MetricPathCache forRegistry(MetricRegistry registry, String prefix, String[] suffixes)
+    {
+        MetricPathCache cache = new MetricPathCache(prefix, suffixes);
+        registry.addListener(cache);
+        return cache;
+    }
+
+    @Override
+    public Paths get(String name)
+    {
+        Paths entry = super.get(name);
+        if (entry == null)
+        {
+            Paths created = new Paths(name, suffixes.length);
+            entry = putIfAbsent(name, created);
+            if (entry == null)
+            {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * @return the path sent for one measurement of a metric
+     */
+    protected String render(String prefix, String name, String suffix)
+    {
+        return MetricRegistry.name(prefix, name, suffix);
+    }
+
+    /**
+     * The paths of one metric, filled in lazily by the reporting thread.
+     */
+    public class Paths
+    {
+        private final String name;
+        private final byte[][] encoded;
+        private final int[] routes;
+        private long[] values;
+
+        Paths(String name, int measurements)
+        {
+            this.name = name;
+            this.encoded = new byte[measurements][];
+            this.routes = new int[measurements];
+            Arrays.fill(routes, -1);
+        }
+
+        public byte[] get(int measurement)
+        {
+            byte[] path = encoded[measurement];
+            if (path == null)
+            {
+                path = render(prefix, name, suffixes[measurement]).getBytes(StandardCharsets.UTF_8);
+                encoded[measurement] = path;
+            }
+            return path;
+        }
+
+        /**
+         * @return what the reporter stored with {@link #setRoute}, -1 if
+         *         nothing was stored yet
+         */
+        public int getRoute(int measurement)
+        {
+            return routes[measurement];
+        }
+
+        /**
+         * Keeps a small non-negative number with the path, such as the host a
+         * sharding reporter sends it to.
+         */
+        public void setRoute(int measurement, int route)
+        {
+            routes[measurement] = route;
+        }
+
+        /**
+         * @return what the reporter stored with {@link #setValue}, 0 if
+         *         nothing was stored yet
+         */
+        public long getValue(int slot)
+        {
+            return values == null || slot >= values.length ? 0 : values[slot];
+        }
+
+        /**
+         * Keeps a value with the path, such as the last count a reporter
+         * sent, which is forgotten along with the metric.  Slots are
+         * numbered by the reporter, usually by measurement index; a reporter
+         * keeping more than one value per measurement can use slots past
+         * the last measurement.
+         */
+        public void setValue(int slot, long value)
+        {
+            if (values == null)
+            {
+                values = new long[Math.max(slot + 1, encoded.length)];
+            }
+            else if (slot >= values.length)
+            {
+                values = Arrays.copyOf(values, slot + 1);
+            }
+            values[slot] = value;
+        }
+    }
+}
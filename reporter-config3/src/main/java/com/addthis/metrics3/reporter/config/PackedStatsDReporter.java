@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.addthis.metrics3.reporter.config.statsd.StatsDPacketSender;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Reports the registry to one or more StatsD hosts with the same names and
+ * values as {@link com.readytalk.metrics.StatsDReporter}, every value a
+ * gauge.
+ * <p>
+ * Lines are packed into datagrams by a {@link StatsDPacketSender} and each
+ * datagram goes to every host, so a tick is encoded once and costs one send
+ * per packet and host.  Paths come from a {@link MetricPathCache}.
+ * <p>
+ * With {@link #setDeltaCounters(boolean)} counter values and the sample
+ * counts of histograms, meters and timers are sent as StatsD counters
+ * ({@code |c}) of how much they changed since the last tick, and not at all
+ * when they did not change.  The last count sent is kept with the metric's
+ * cached paths, so a metric removed and registered again starts over from
+ * zero like the metric itself.
+ */
+public class PackedStatsDReporter extends ScheduledReporter {
+
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+    private static final String[] MEASUREMENTS = {
+            "count", "samples", "max", "mean", "min", "stddev", "p50", "p75", "p95", "p98", "p99", "p999",
+            "m1_rate", "m5_rate", "m15_rate", "mean_rate", null};
+    private static final int COUNT = 0;
+    private static final int SAMPLES = 1;
+    private static final int MAX = 2;
+    private static final int MEAN = 3;
+    private static final int MIN = 4;
+    private static final int STDDEV = 5;
+    private static final int P50 = 6;
+    private static final int P75 = 7;
+    private static final int P95 = 8;
+    private static final int P98 = 9;
+    private static final int P99 = 10;
+    private static final int P999 = 11;
+    private static final int M1_RATE = 12;
+    private static final int M5_RATE = 13;
+    private static final int M15_RATE = 14;
+    private static final int MEAN_RATE = 15;
+    private static final int VALUE = 16;
+
+    private final StatsDPacketSender sender;
+    private final MetricRegistry registry;
+    private final MetricPathCache paths;
+    private volatile boolean deltaCounters;
+
+    public PackedStatsDReporter(StatsDPacketSender sender,
+                                MetricRegistry registry,
+                                String prefix,
+                                MetricFilter filter,
+                                TimeUnit rateUnit,
+                                TimeUnit durationUnit) {
+
+        super(registry, "statsd-reporter", filter, rateUnit, durationUnit);
+
+        this.sender = sender;
+        this.registry = registry;
+        this.paths = new MetricPathCache(prefix, MEASUREMENTS) {
+            @Override
+            protected String render(String prefix, String name, String suffix) {
+                return WHITESPACE.matcher(super.render(prefix, name, suffix)).replaceAll("-");
+            }
+        };
+        registry.addListener(paths);
+    }
+
+    /**
+     * @param deltaCounters send counts as StatsD counters of their change
+     *                      since the last tick instead of as gauges
+     */
+    public void setDeltaCounters(boolean deltaCounters) {
+        this.deltaCounters = deltaCounters;
+    }
+
+    @Override
+    public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                       SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
+
+        sender.begin();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            Object value = entry.getValue().getValue();
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                sender.add(paths.get(entry.getKey()).get(VALUE), ((Number) value).longValue(), 'g');
+            } else if (value instanceof Number) {
+                sender.add(paths.get(entry.getKey()).get(VALUE), ((Number) value).doubleValue(), 'g');
+            }
+        }
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            addCount(paths.get(entry.getKey()), COUNT, entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            MetricPathCache.Paths metric = paths.get(entry.getKey());
+            addCount(metric, SAMPLES, histogram.getCount());
+            addSnapshot(metric, histogram.getSnapshot(), 1.0);
+        }
+        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+            addMetered(paths.get(entry.getKey()), entry.getValue());
+        }
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            MetricPathCache.Paths metric = paths.get(entry.getKey());
+            addSnapshot(metric, timer.getSnapshot(), convertDuration(1));
+            addMetered(metric, timer);
+        }
+        sender.end();
+    }
+
+    /**
+     * @param factor 1 to keep the histogram's longs as they are, otherwise
+     *               the duration conversion applied to a timer's nanoseconds
+     */
+    private void addSnapshot(MetricPathCache.Paths metric, Snapshot snapshot, double factor) {
+        if (factor == 1.0) {
+            sender.add(metric.get(MAX), snapshot.getMax(), 'g');
+        } else {
+            sender.add(metric.get(MAX), snapshot.getMax() * factor, 'g');
+        }
+        sender.add(metric.get(MEAN), snapshot.getMean() * factor, 'g');
+        if (factor == 1.0) {
+            sender.add(metric.get(MIN), snapshot.getMin(), 'g');
+        } else {
+            sender.add(metric.get(MIN), snapshot.getMin() * factor, 'g');
+        }
+        sender.add(metric.get(STDDEV), snapshot.getStdDev() * factor, 'g');
+        sender.add(metric.get(P50), snapshot.getMedian() * factor, 'g');
+        sender.add(metric.get(P75), snapshot.get75thPercentile() * factor, 'g');
+        sender.add(metric.get(P95), snapshot.get95thPercentile() * factor, 'g');
+        sender.add(metric.get(P98), snapshot.get98thPercentile() * factor, 'g');
+        sender.add(metric.get(P99), snapshot.get99thPercentile() * factor, 'g');
+        sender.add(metric.get(P999), snapshot.get999thPercentile() * factor, 'g');
+    }
+
+    private void addMetered(MetricPathCache.Paths metric, Metered meter) {
+        addCount(metric, SAMPLES, meter.getCount());
+        sender.add(metric.get(M1_RATE), convertRate(meter.getOneMinuteRate()), 'g');
+        sender.add(metric.get(M5_RATE), convertRate(meter.getFiveMinuteRate()), 'g');
+        sender.add(metric.get(M15_RATE), convertRate(meter.getFifteenMinuteRate()), 'g');
+        sender.add(metric.get(MEAN_RATE), convertRate(meter.getMeanRate()), 'g');
+    }
+
+    private void addCount(MetricPathCache.Paths metric, int measurement, long count) {
+        if (!deltaCounters) {
+            sender.add(metric.get(measurement), count, 'g');
+            return;
+        }
+        long delta = count - metric.getValue(measurement);
+        if (delta != 0) {
+            sender.add(metric.get(measurement), delta, 'c');
+            metric.setValue(measurement, count);
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        registry.removeListener(paths);
+        try {
+            sender.close();
+        } catch (IOException e) {
+            // nothing left to send
+        }
+    }
+}
@@ -14,14 +14,27 @@
 
 package com.addthis.metrics3.reporter.config;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.addthis.metrics3.reporter.config.prometheus.MetricRegistryDecorator;
+import com.addthis.metrics3.reporter.config.prometheus.HistogramBuckets;
+import com.addthis.metrics3.reporter.config.prometheus.PrometheusTextWriter;
+import com.addthis.metrics3.reporter.config.prometheus.PushGatewayClient;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
@@ -35,17 +48,41 @@ import com.codahale.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import io.prometheus.client.CollectorRegistry;
-import io.prometheus.client.exporter.PushGateway;
-
+/**
+ * Pushes the registry to one or more Pushgateways.
+ * <p>
+ * Each tick collects and encodes the registry once, then pushes the same
+ * body to every gateway in parallel.  A gateway that has not answered within
+ * the timeout is logged and left to finish on its own; it is skipped on later
+ * ticks until it does, so one slow gateway neither delays the others nor piles
+ * up requests.
+ * <p>
+ * When {@link #setFullPushEvery(int)} is above 1 the reporter pushes deltas:
+ * a full {@code PUT} every that many ticks, and in between a {@code POST} of
+ * only the families whose samples changed, which the gateway merges into the
+ * group.  A gateway that missed a push gets a full {@code PUT} on its next
+ * turn.  Metrics removed from the registry linger on the gateway until the
+ * next full push.
+ * <p>
+ * The body is written by a {@link PrometheusTextWriter} straight from the
+ * registry; the metrics handed to {@link #report(SortedMap, SortedMap,
+ * SortedMap, SortedMap, SortedMap)} are ignored, which is why the reporter
+ * is never a pipeline sink.
+ */
 public class PrometheusReporter extends ScheduledReporter {
 
-    private static final Logger logger = LoggerFactory.getLogger(ZabbixReporter.class);
+    private static final Logger logger = LoggerFactory.getLogger(PrometheusReporter.class);
+
+    static final int DEFAULT_TIMEOUT_MILLIS = 10000;
 
-    private final PushGateway pushGateway;
-    private final String address;
-    private final String job;
-    private final CollectorRegistry registry = new CollectorRegistry();
+    private final List<Gateway> gateways = new ArrayList<>();
+    private final PrometheusTextWriter writer;
+    private final ExecutorService pushExecutor;
+    private final int timeoutMillis;
+    private final PrometheusTextWriter.ChangeTracker tracker = new PrometheusTextWriter.ChangeTracker();
+    private volatile int lastPayloadSize = 8192;
+    private volatile int fullPushEvery = 1;
+    private int ticksUntilFullPush;
 
     public PrometheusReporter(String address,
                               String job,
@@ -55,23 +92,200 @@ public class PrometheusReporter extends ScheduledReporter {
                               MetricFilter filter,
                               TimeUnit rateUnit,
                               TimeUnit durationUnit) {
+        this(Collections.singletonList(address), job, labels, registry, name, filter, rateUnit, durationUnit,
+             DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public PrometheusReporter(List<String> addresses,
+                              String job,
+                              Map<String, String> labels,
+                              MetricRegistry registry,
+                              String name,
+                              MetricFilter filter,
+                              TimeUnit rateUnit,
+                              TimeUnit durationUnit,
+                              int timeoutMillis) {
 
         super(registry, name, filter, rateUnit, durationUnit);
 
-        this.pushGateway = new PushGateway(address);
-        this.address = address;
-        this.job = job;
-        this.registry.register(new MetricRegistryDecorator(registry, job, labels));
+        for (String address : addresses) {
+            try {
+                gateways.add(new Gateway(new PushGatewayClient(address, job, timeoutMillis)));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid pushgateway address " + address, e);
+            }
+        }
+        this.writer = new PrometheusTextWriter(registry, job, labels, filter);
+        this.timeoutMillis = timeoutMillis;
+        this.pushExecutor = Executors.newFixedThreadPool(Math.max(1, gateways.size()),
+                new ReporterScheduler.DaemonThreadFactory("prometheus-push"));
+    }
+
+    /**
+     * @param fullPushEvery push everything every this many ticks and only
+     *                      changed families in between; 1 (the default)
+     *                      pushes everything every tick
+     */
+    public void setFullPushEvery(int fullPushEvery) {
+        this.fullPushEvery = fullPushEvery;
+    }
+
+    /**
+     * @see PrometheusTextWriter#setHistogramBuckets(HistogramBuckets)
+     */
+    public void setHistogramBuckets(HistogramBuckets histogramBuckets) {
+        writer.setHistogramBuckets(histogramBuckets);
     }
 
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
                        SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
 
+        byte[] full = null;
+        byte[] delta = null;
         try {
-            this.pushGateway.push(registry, job, new HashMap<String, String>());
+            if (fullPushEvery <= 1) {
+                full = encode(false, false);
+            } else {
+                boolean fullTick = isFullTick();
+                delta = encode(true, fullTick);
+                if (fullTick) {
+                    full = delta;
+                    delta = null;
+                } else if (needsResync()) {
+                    full = encode(false, false);
+                }
+            }
         } catch (IOException ex) {
-            logger.error("failed to report prometheus metrics to {}", address, ex);
+            logger.error("failed to encode prometheus metrics", ex);
+            return;
+        }
+
+        List<Future<?>> pushes = new ArrayList<>(gateways.size());
+        List<Gateway> pushed = new ArrayList<>(gateways.size());
+        for (Gateway gateway : gateways) {
+            boolean put = delta == null || gateway.needsResync;
+            if (!put && delta.length == 0) {
+                // nothing changed since the last tick
+                continue;
+            }
+            if (put && full == null) {
+                // failed after this tick was encoded; resynced next tick
+                continue;
+            }
+            if (!gateway.inFlight.compareAndSet(false, true)) {
+                logger.warn("skipping push to {}, previous push has not finished", gateway.client.getAddress());
+                gateway.needsResync = true;
+                continue;
+            }
+            if (put) {
+                // cleared before the push so a tick skipped meanwhile still asks for the next one
+                gateway.needsResync = false;
+            }
+            try {
+                pushes.add(pushExecutor.submit(new PushTask(gateway, put ? full : delta, put)));
+            } catch (RejectedExecutionException ex) {
+                // only after stop()
+                gateway.inFlight.set(false);
+                gateway.needsResync = true;
+                logger.warn("skipping push to {}, reporter is stopped", gateway.client.getAddress());
+                continue;
+            }
+            pushed.add(gateway);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < pushes.size(); i++) {
+            try {
+                pushes.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                logger.warn("push to {} did not finish within {} ms", pushed.get(i).client.getAddress(),
+                            timeoutMillis);
+            } catch (ExecutionException ex) {
+                // PushTask logs its own failures
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private synchronized boolean isFullTick() {
+        if (ticksUntilFullPush <= 0) {
+            ticksUntilFullPush = fullPushEvery - 1;
+            return true;
+        }
+        ticksUntilFullPush--;
+        return false;
+    }
+
+    private boolean needsResync() {
+        for (Gateway gateway : gateways) {
+            if (gateway.needsResync) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] encode(boolean tracked, boolean full) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(lastPayloadSize + 1024);
+        if (tracked) {
+            writer.writeChanged(body, tracker, full);
+        } else {
+            writer.write(body);
+        }
+        byte[] payload = body.toByteArray();
+        if (full || !tracked) {
+            lastPayloadSize = payload.length;
+        }
+        return payload;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        pushExecutor.shutdown();
+        writer.close();
+    }
+
+    private static class Gateway {
+        final PushGatewayClient client;
+        final AtomicBoolean inFlight = new AtomicBoolean();
+        volatile boolean needsResync = true;
+
+        Gateway(PushGatewayClient client) {
+            this.client = client;
+        }
+    }
+
+    private static class PushTask implements Callable<Void> {
+        private final Gateway gateway;
+        private final byte[] payload;
+        private final boolean put;
+
+        PushTask(Gateway gateway, byte[] payload, boolean put) {
+            this.gateway = gateway;
+            this.payload = payload;
+            this.put = put;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                if (put) {
+                    gateway.client.put(payload);
+                } else {
+                    gateway.client.post(payload);
+                }
+                return null;
+            } catch (IOException | RuntimeException ex) {
+                gateway.needsResync = true;
+                logger.error("failed to report prometheus metrics to {}", gateway.client.getAddress(), ex);
+                throw ex;
+            } finally {
+                gateway.inFlight.set(false);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -14,12 +14,19 @@
 
 package com.addthis.metrics3.reporter.config;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.addthis.metrics.reporter.config.AbstractPrometheusReporterConfig;
 import com.addthis.metrics.reporter.config.HostPort;
+import com.addthis.metrics3.reporter.config.prometheus.HistogramBuckets;
 import com.addthis.metrics3.reporter.config.prometheus.MetricRegistryDecorator;
+import com.addthis.metrics3.reporter.config.prometheus.PrometheusHttpServer;
+import com.addthis.metrics3.reporter.config.prometheus.PrometheusTextServlet;
+import com.addthis.metrics3.reporter.config.prometheus.PrometheusTextWriter;
 
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
@@ -27,6 +34,8 @@ import com.codahale.metrics.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServlet;
+
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.MetricsServlet;
 
@@ -34,11 +43,16 @@ public class PrometheusReporterConfig extends AbstractPrometheusReporterConfig i
 
     private static final Logger log = LoggerFactory.getLogger(PrometheusReporterConfig.class);
     private static final String SERVLET_CLASS = "io.prometheus.client.exporter.MetricsServlet";
-    private static final String SENDER_CLASS = "io.prometheus.client.exporter.PushGateway";
+    private static final String SENDER_CLASS = "io.prometheus.client.Collector";
+    private static final String HTTP_SERVER_CLASS = "com.sun.net.httpserver.HttpServer";
 
 
     private final List<PrometheusReporter> reporters = new ArrayList<>();
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
     private MetricRegistry registry;
+    private PrometheusHttpServer httpServer;
+    private MetricRegistryDecorator decorator;
+    private PrometheusTextWriter textWriter;
 
     public PrometheusReporterConfig() {
         // Hack to support servlet type w/o period failing validation.
@@ -59,6 +73,22 @@ public class PrometheusReporterConfig extends AbstractPrometheusReporterConfig i
             return true;
         }
 
+        if (getType().equals(Type.httpserver)) {
+            if (!isClassAvailable(HTTP_SERVER_CLASS)) {
+                log.error("Tried to enable Prometheus HTTP server, but class {} was not found", HTTP_SERVER_CLASS);
+                return false;
+            }
+            try {
+                httpServer = new PrometheusHttpServer(new InetSocketAddress(getPort()), getHttpThreads(),
+                        getTextWriter());
+                httpServer.start();
+            } catch (IOException e) {
+                log.error("Failed to start Prometheus HTTP server on port {}", getPort(), e);
+                return false;
+            }
+            return true;
+        }
+
         // If we reached here then the config is for a pushgateway setup.
         if (!isClassAvailable(SENDER_CLASS)) {
             log.error("Tried to enable Prometheus Reporter, but class {} was not found", SENDER_CLASS);
@@ -71,22 +101,29 @@ public class PrometheusReporterConfig extends AbstractPrometheusReporterConfig i
             return false;
         }
 
+        // one reporter collects once per tick and fans out to every gateway
+        List<String> addresses = new ArrayList<>(hostPorts.size());
         for (HostPort hostPort : hostPorts) {
-            MetricFilter filter = MetricFilterTransformer.generateFilter(getPredicate());
-            PrometheusReporter reporter = new PrometheusReporter(
-                    String.format("%s:%d", hostPort.getHost(), hostPort.getPort()),
-                    getJob(),
-                    getResolvedLabels(),
-                    registry,
-                    name,
-                    filter,
-                    getRealRateunit(),
-                    getRealDurationunit()
-            );
-
-            reporter.start(getPeriod(), getRealTimeunit());
-            reporters.add(reporter);
+            addresses.add(String.format("%s:%d", hostPort.getHost(), hostPort.getPort()));
         }
+        MetricFilter filter = MetricFilterTransformer.generateFilter(getPredicate(), registry);
+        PrometheusReporter reporter = new PrometheusReporter(
+                addresses,
+                getJob(),
+                getResolvedLabels(),
+                registry,
+                name,
+                filter,
+                getRealRateunit(),
+                getRealDurationunit(),
+                getPushTimeout()
+        );
+        reporter.setFullPushEvery(getFullPushEvery());
+        reporter.setHistogramBuckets(createHistogramBuckets());
+
+        // the push body is written from the registry, so a pipeline snapshot would be wasted
+        reporterScheduler.scheduleOutsidePipeline(reporter, this, registry);
+        reporters.add(reporter);
 
         return true;
     }
@@ -105,7 +142,63 @@ public class PrometheusReporterConfig extends AbstractPrometheusReporterConfig i
 
     public MetricsServlet getMetricsServlet() {
         CollectorRegistry collectorRegistry = new CollectorRegistry();
-        collectorRegistry.register(new MetricRegistryDecorator(registry, job, getResolvedLabels()));
+        collectorRegistry.register(getDecorator());
         return new MetricsServlet(collectorRegistry);
     }
+
+    /**
+     * Built once per config; each decorator and its filter listen to the
+     * registry for as long as it lives.
+     */
+    private synchronized MetricRegistryDecorator getDecorator() {
+        if (decorator == null) {
+            decorator = new MetricRegistryDecorator(registry, job, getResolvedLabels(),
+                    MetricFilterTransformer.generateFilter(getPredicate(), registry));
+            decorator.setMinScrapeInterval(getMinScrapeInterval(), TimeUnit.MILLISECONDS);
+            decorator.setHistogramBuckets(createHistogramBuckets());
+        }
+        return decorator;
+    }
+
+    /**
+     * @return a {@link PrometheusTextServlet} when {@code streaming} or a
+     * {@code minScrapeInterval} is set, otherwise the client library's
+     * {@link MetricsServlet}
+     */
+    public HttpServlet getServlet() {
+        if (isStreaming() || getMinScrapeInterval() > 0) {
+            return new PrometheusTextServlet(getTextWriter());
+        }
+        return getMetricsServlet();
+    }
+
+    /**
+     * @return the scrape endpoint started for the {@code httpserver} type, or
+     * null
+     */
+    public PrometheusHttpServer getHttpServer() {
+        return httpServer;
+    }
+
+    /**
+     * @return the writer shared by the scrape endpoints of this config, built
+     * on first use
+     */
+    public synchronized PrometheusTextWriter getTextWriter() {
+        if (textWriter == null) {
+            textWriter = new PrometheusTextWriter(registry, job, getResolvedLabels(),
+                    MetricFilterTransformer.generateFilter(getPredicate(), registry));
+            textWriter.setMinScrapeInterval(getMinScrapeInterval(), TimeUnit.MILLISECONDS);
+            textWriter.setHistogramBuckets(createHistogramBuckets());
+        }
+        return textWriter;
+    }
+
+    private HistogramBuckets createHistogramBuckets() {
+        return "buckets".equals(getHistogramMode()) ? new HistogramBuckets(getBuckets()) : null;
+    }
+
+    void setReporterScheduler(ReporterScheduler reporterScheduler) {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.util.List;
 
 import com.addthis.metrics.reporter.config.AbstractReporterConfig;
+import com.addthis.metrics.reporter.config.SchedulerConfig;
 
 import com.codahale.metrics.MetricRegistry;
 
@@ -56,6 +57,12 @@ public class ReporterConfig extends AbstractReporterConfig {
     @Valid
     private List<HawkularReporterConfig> hawkular;
 
+    @Valid
+    private SchedulerConfig scheduler;
+    private boolean pipeline;
+    private boolean index;
+    private ReporterScheduler reporterScheduler;
+
     public List<ConsoleReporterConfig> getConsole() {
         return console;
     }
@@ -136,6 +143,58 @@ public class ReporterConfig extends AbstractReporterConfig {
         this.hawkular = hawkular;
     }
 
+    public SchedulerConfig getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Runs every reporter on one executor of the given size instead of one
+     * thread per reporter and host.
+     */
+    public void setScheduler(SchedulerConfig scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public boolean isPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * When enabled, reporters sharing a period are fed from a single snapshot
+     * of the registry per tick instead of each walking the registry and
+     * snapshotting every histogram and timer on its own.
+     */
+    public void setPipeline(boolean pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public boolean isIndex() {
+        return index;
+    }
+
+    /**
+     * When enabled, reporters iterate a filtered and sorted index of the
+     * registry that is updated as metrics are added or removed, instead of
+     * copying and sorting the registry on every tick.
+     */
+    public void setIndex(boolean index) {
+        this.index = index;
+    }
+
+    private synchronized ReporterScheduler getReporterScheduler() {
+        if (reporterScheduler == null) {
+            if (scheduler != null) {
+                reporterScheduler = new ReporterScheduler(pipeline, scheduler.getThreads(), index);
+            } else if (pipeline || index) {
+                reporterScheduler = new ReporterScheduler(pipeline, pipeline ? 1 : 0, index);
+            } else {
+                // not the shared default, so stop() only stops this config's reporters
+                reporterScheduler = new ReporterScheduler(false, 0);
+            }
+        }
+        return reporterScheduler;
+    }
+
     public boolean enableConsole(MetricRegistry registry) {
         boolean failures = false;
         if (console == null) {
@@ -143,6 +202,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (ConsoleReporterConfig consoleConfig : console) {
+            consoleConfig.setReporterScheduler(getReporterScheduler());
             if (!consoleConfig.enable(registry)) {
                 failures = true;
             }
@@ -157,6 +217,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (CsvReporterConfig csvConfig : csv) {
+            csvConfig.setReporterScheduler(getReporterScheduler());
             if (!csvConfig.enable(registry)) {
                 failures = true;
             }
@@ -171,6 +232,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (GangliaReporterConfig gangliaConfig : ganglia) {
+            gangliaConfig.setReporterScheduler(getReporterScheduler());
             if (!gangliaConfig.enable(registry)) {
                 failures = true;
             }
@@ -185,6 +247,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (GraphiteReporterConfig graphiteConfig : graphite) {
+            graphiteConfig.setReporterScheduler(getReporterScheduler());
             if (!graphiteConfig.enable(registry)) {
                 failures = true;
             }
@@ -201,6 +264,7 @@ public class ReporterConfig extends AbstractReporterConfig {
         }
 
         for (PrometheusReporterConfig prometheusConfig : prometheus) {
+            prometheusConfig.setReporterScheduler(getReporterScheduler());
             if (!prometheusConfig.enable(registry)) {
                 failures = true;
             }
@@ -216,6 +280,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (InfluxDBReporterConfig influxConfig : influxdb) {
+            influxConfig.setReporterScheduler(getReporterScheduler());
             if (!influxConfig.enable(registry)) {
                 failures = true;
             }
@@ -230,6 +295,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (RiemannReporterConfig riemannConfig : riemann) {
+            riemannConfig.setReporterScheduler(getReporterScheduler());
             if (!riemannConfig.enable(registry)) {
                 failures = true;
             }
@@ -244,6 +310,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (StatsDReporterConfig statsdConfig : statsd) {
+            statsdConfig.setReporterScheduler(getReporterScheduler());
             if (!statsdConfig.enable(registry)) {
                 failures = true;
             }
@@ -258,6 +325,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (ZabbixReporterConfig zabbixConfig : zabbix) {
+            zabbixConfig.setReporterScheduler(getReporterScheduler());
             if (!zabbixConfig.enable(registry)) {
                 failures = true;
             }
@@ -272,6 +340,7 @@ public class ReporterConfig extends AbstractReporterConfig {
             return false;
         }
         for (HawkularReporterConfig hawkularConfig : hawkular) {
+            hawkularConfig.setReporterScheduler(getReporterScheduler());
             if (!hawkularConfig.enable(registry)) {
                 failures = true;
             }
@@ -338,6 +407,15 @@ public class ReporterConfig extends AbstractReporterConfig {
         report(hawkular);
     }
 
+    /**
+     * Stops every reporter enabled by this config and cancels their ticks.
+     */
+    public synchronized void stop() {
+        if (reporterScheduler != null) {
+            reporterScheduler.stop();
+        }
+    }
+
     public static ReporterConfig loadFromFileAndValidate(String fileName) throws IOException {
         ReporterConfig config = loadFromFile(fileName);
         if (validate(config)) {
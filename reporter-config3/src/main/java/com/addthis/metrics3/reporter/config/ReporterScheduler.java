@@ -0,0 +1,383 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.addthis.metrics.reporter.config.AbstractMetricReporterConfig;
+import com.addthis.metrics.reporter.config.PredicateConfig;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts the {@link ScheduledReporter}s built by the reporter configs.
+ * <p>
+ * By default every reporter is started on its own executor, exactly as if
+ * {@link ScheduledReporter#start(long, TimeUnit)} had been called directly.
+ * When a shared executor size is given, reporters are instead ticked from one
+ * pool of that many threads.  Each reporter is a separate fixed-rate task, so
+ * work is spread across the pool while two ticks of the same reporter never
+ * overlap.
+ * <p>
+ * Reporters configured with an {@code alignment} are always ticked from the
+ * scheduler's own executor so their first tick can be delayed to the next
+ * (possibly host-shifted) period boundary.
+ * <p>
+ * In pipeline mode reporters that share a registry and a period become sinks
+ * of a single {@link SnapshotStage}, so each tick walks the registry and
+ * snapshots every histogram and timer once regardless of how many reporters
+ * are configured.
+ * <p>
+ * In index mode reporters are ticked with a {@link MetricIndex} shared by all
+ * reporters with the same registry and predicate, instead of letting
+ * {@link ScheduledReporter#report()} filter and sort the registry each tick.
+ * <p>
+ * {@link #stop()} cancels every tick and stops every reporter scheduled
+ * here, however it was ticked.
+ */
+public class ReporterScheduler
+{
+    private static final Logger log = LoggerFactory.getLogger(ReporterScheduler.class);
+
+    static final ReporterScheduler DEFAULT = new ReporterScheduler(false, 0);
+
+    private final boolean pipeline;
+    private final int threads;
+    private final boolean index;
+    private final Map<StageKey, SnapshotStage> stages = new HashMap<StageKey, SnapshotStage>();
+    private final Map<IndexKey, MetricIndex> indexes = new HashMap<IndexKey, MetricIndex>();
+    private final List<ScheduledExecutorService> dedicatedExecutors = new ArrayList<ScheduledExecutorService>();
+    private final List<ScheduledReporter> reporters = new ArrayList<ScheduledReporter>();
+    private ScheduledExecutorService executor;
+
+    public ReporterScheduler(boolean pipeline)
+    {
+        this(pipeline, pipeline ? 1 : 0);
+    }
+
+    /**
+     * @param pipeline share one snapshot per registry and period
+     * @param threads  size of the shared executor, or 0 to give every
+     *                 reporter its own (pipeline stages and aligned
+     *                 reporters then use one thread)
+     */
+    public ReporterScheduler(boolean pipeline, int threads)
+    {
+        this(pipeline, threads, false);
+    }
+
+    /**
+     * @param index tick non-pipeline reporters from a listener-maintained
+     *              {@link MetricIndex} of the registry
+     */
+    public ReporterScheduler(boolean pipeline, int threads, boolean index)
+    {
+        this.pipeline = pipeline;
+        this.threads = threads;
+        this.index = index;
+    }
+
+    public boolean isPipeline()
+    {
+        return pipeline;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public boolean isIndex()
+    {
+        return index;
+    }
+
+    public synchronized void schedule(ScheduledReporter reporter, AbstractMetricReporterConfig config,
+                                      MetricRegistry registry)
+    {
+        if (!pipeline)
+        {
+            scheduleOutsidePipeline(reporter, config, registry);
+            return;
+        }
+        track(reporter);
+        long periodNanos = config.getRealTimeunit().toNanos(config.getPeriod());
+        long initialDelayMillis = config.getInitialDelayMillis(System.currentTimeMillis());
+        long initialDelayNanos = initialDelayMillis < 0 ? periodNanos : TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        // aligned reporters only share a stage with reporters ticking at the same phase
+        long phase = initialDelayMillis < 0 ? -1 : config.getPhaseMillis();
+        StageKey key = new StageKey(registry, periodNanos, phase);
+        SnapshotStage stage = stages.get(key);
+        if (stage == null)
+        {
+            stage = new SnapshotStage(registry);
+            stages.put(key, stage);
+            getExecutor().scheduleAtFixedRate(stage, initialDelayNanos, periodNanos, TimeUnit.NANOSECONDS);
+            log.info("Started snapshot stage with a period of {} {}", config.getPeriod(), config.getRealTimeunit());
+        }
+        stage.addSink(reporter, MetricFilterTransformer.generateFilter(config.getPredicate(), registry));
+    }
+
+    /**
+     * Like {@link #schedule}, but never as a pipeline sink.  For reporters
+     * that read the registry themselves and ignore the metrics they are
+     * handed, which a snapshot stage would only capture for nothing.
+     */
+    public synchronized void scheduleOutsidePipeline(ScheduledReporter reporter, AbstractMetricReporterConfig config,
+                                                     MetricRegistry registry)
+    {
+        reporters.add(reporter);
+        long periodNanos = config.getRealTimeunit().toNanos(config.getPeriod());
+        long initialDelayMillis = config.getInitialDelayMillis(System.currentTimeMillis());
+        long initialDelayNanos = initialDelayMillis < 0 ? periodNanos : TimeUnit.MILLISECONDS.toNanos(initialDelayMillis);
+        if (threads > 0 || initialDelayMillis >= 0)
+        {
+            // ScheduledReporter.start cannot take an initial delay, so aligned
+            // reporters are always ticked from our executor
+            getExecutor().scheduleAtFixedRate(createTask(reporter, config, registry), initialDelayNanos, periodNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+        else if (index)
+        {
+            // same threading as ScheduledReporter.start, but ticking from the index
+            ScheduledExecutorService dedicated = Executors.newSingleThreadScheduledExecutor(
+                    new DaemonThreadFactory("metrics-reporter-" + dedicatedExecutors.size()));
+            dedicatedExecutors.add(dedicated);
+            dedicated.scheduleAtFixedRate(createTask(reporter, config, registry), periodNanos, periodNanos,
+                    TimeUnit.NANOSECONDS);
+        }
+        else
+        {
+            reporter.start(config.getPeriod(), config.getRealTimeunit());
+        }
+    }
+
+    private void track(ScheduledReporter reporter)
+    {
+        // the shared default is never stopped, so it must not hold on to its reporters
+        if (this != DEFAULT)
+        {
+            reporters.add(reporter);
+        }
+    }
+
+    private Runnable createTask(ScheduledReporter reporter, AbstractMetricReporterConfig config,
+                                MetricRegistry registry)
+    {
+        if (!index)
+        {
+            return new ReportTask(reporter);
+        }
+        return new IndexedReportTask(reporter, getIndex(registry, config.getPredicate()));
+    }
+
+    private MetricIndex getIndex(MetricRegistry registry, PredicateConfig predicate)
+    {
+        IndexKey key = new IndexKey(registry, predicate);
+        MetricIndex metricIndex = indexes.get(key);
+        if (metricIndex == null)
+        {
+            // the filter only runs when a metric is registered, so no verdict cache
+            metricIndex = MetricIndex.forRegistry(registry, MetricFilterTransformer.generateFilter(predicate));
+            indexes.put(key, metricIndex);
+        }
+        return metricIndex;
+    }
+
+    private ScheduledExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = new ScheduledThreadPoolExecutor(Math.max(1, threads),
+                    new DaemonThreadFactory("metrics-reporter-scheduler"));
+        }
+        return executor;
+    }
+
+    public synchronized void stop()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+            executor = null;
+        }
+        for (ScheduledExecutorService dedicated : dedicatedExecutors)
+        {
+            dedicated.shutdown();
+        }
+        dedicatedExecutors.clear();
+        stages.clear();
+        indexes.clear();
+        for (ScheduledReporter reporter : reporters)
+        {
+            try
+            {
+                reporter.stop();
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Reporter {} failed to stop", reporter, e);
+            }
+        }
+        reporters.clear();
+    }
+
+    /**
+     * Exceptions are caught because a periodic task that throws is silently
+     * never run again.
+     */
+    private static class ReportTask implements Runnable
+    {
+        private final ScheduledReporter reporter;
+
+        ReportTask(ScheduledReporter reporter)
+        {
+            this.reporter = reporter;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                reporter.report();
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Reporter {} failed to report", reporter, e);
+            }
+        }
+    }
+
+    private static class IndexedReportTask implements Runnable
+    {
+        private final ScheduledReporter reporter;
+        private final MetricIndex index;
+
+        IndexedReportTask(ScheduledReporter reporter, MetricIndex index)
+        {
+            this.reporter = reporter;
+            this.index = index;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                reporter.report(index.getGauges(), index.getCounters(), index.getHistograms(), index.getMeters(),
+                        index.getTimers());
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Reporter {} failed to report", reporter, e);
+            }
+        }
+    }
+
+    private static class IndexKey
+    {
+        private final MetricRegistry registry;
+        private final PredicateConfig predicate;
+
+        IndexKey(MetricRegistry registry, PredicateConfig predicate)
+        {
+            this.registry = registry;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof IndexKey))
+            {
+                return false;
+            }
+            IndexKey other = (IndexKey) o;
+            return registry == other.registry && predicate == other.predicate;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * System.identityHashCode(registry) + System.identityHashCode(predicate);
+        }
+    }
+
+    private static class StageKey
+    {
+        private final MetricRegistry registry;
+        private final long periodNanos;
+        private final long phase;
+
+        StageKey(MetricRegistry registry, long periodNanos, long phase)
+        {
+            this.registry = registry;
+            this.periodNanos = periodNanos;
+            this.phase = phase;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof StageKey))
+            {
+                return false;
+            }
+            StageKey other = (StageKey) o;
+            return registry == other.registry && periodNanos == other.periodNanos && phase == other.phase;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = System.identityHashCode(registry);
+            result = 31 * result + (int) (periodNanos ^ (periodNanos >>> 32));
+            result = 31 * result + (int) (phase ^ (phase >>> 32));
+            return result;
+        }
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -30,6 +30,7 @@ public class RiemannReporterConfig extends AbstractRiemannReporterConfig impleme
 {
     private static final Logger log = LoggerFactory.getLogger(RiemannReporterConfig.class);
     private List<RiemannReporter> reporters = new ArrayList<RiemannReporter>();
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
     private MetricRegistry registry;
 
     @Override
@@ -77,7 +78,7 @@ public class RiemannReporterConfig extends AbstractRiemannReporterConfig impleme
                 }
                 Riemann riemann = new Riemann(hostPort.getHost(), hostPort.getPort());
                 RiemannReporter reporter = builder.build(riemann);
-                reporter.start(getPeriod(), getRealTimeunit());
+                reporterScheduler.schedule(reporter, this, registry);
                 reporters.add(reporter);
             }
             catch (Exception e)
@@ -96,4 +97,8 @@ public class RiemannReporterConfig extends AbstractRiemannReporterConfig impleme
         }
     }
 
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
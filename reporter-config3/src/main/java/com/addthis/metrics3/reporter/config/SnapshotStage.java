@@ -0,0 +1,389 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One tick of the reporting pipeline.  The registry is walked once, every
+ * gauge value, count, rate and histogram/timer snapshot wanted by at least one
+ * sink is captured once, and the same frozen metrics are then handed to every
+ * sink.  Sinks are ordinary {@link ScheduledReporter}s that are never started
+ * themselves; their filter is applied here instead of inside
+ * {@link ScheduledReporter#report()}.
+ */
+class SnapshotStage implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger(SnapshotStage.class);
+
+    private final MetricRegistry registry;
+    private final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+
+    SnapshotStage(MetricRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    void addSink(ScheduledReporter reporter, MetricFilter filter)
+    {
+        sinks.add(new Sink(reporter, filter));
+    }
+
+    int getSinkCount()
+    {
+        return sinks.size();
+    }
+
+    @Override
+    public void run()
+    {
+        Sink[] current = sinks.toArray(new Sink[sinks.size()]);
+        if (current.length == 0)
+        {
+            return;
+        }
+        for (Sink sink : current)
+        {
+            sink.clear();
+        }
+        boolean[] wanted = new boolean[current.length];
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet())
+        {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            boolean any = false;
+            for (int i = 0; i < current.length; i++)
+            {
+                wanted[i] = current[i].filter.matches(name, metric);
+                any |= wanted[i];
+            }
+            if (!any)
+            {
+                continue;
+            }
+            try
+            {
+                capture(name, metric, current, wanted);
+            }
+            catch (RuntimeException e)
+            {
+                // one broken metric must not stop the stage and every sink with it
+                log.error("Failed to capture metric {}, skipping it", name, e);
+            }
+        }
+        for (Sink sink : current)
+        {
+            try
+            {
+                sink.reporter.report(sink.gauges, sink.counters, sink.histograms, sink.meters, sink.timers);
+            }
+            catch (RuntimeException e)
+            {
+                log.error("Reporter {} failed to report pipeline snapshot", sink.reporter, e);
+            }
+        }
+    }
+
+    private static void capture(String name, Metric metric, Sink[] sinks, boolean[] wanted)
+    {
+        if (metric instanceof Gauge)
+        {
+            Gauge frozen = new FrozenGauge(((Gauge) metric).getValue());
+            for (int i = 0; i < sinks.length; i++)
+            {
+                if (wanted[i])
+                {
+                    sinks[i].gauges.put(name, frozen);
+                }
+            }
+        }
+        else if (metric instanceof Counter)
+        {
+            Counter frozen = new FrozenCounter(((Counter) metric).getCount());
+            for (int i = 0; i < sinks.length; i++)
+            {
+                if (wanted[i])
+                {
+                    sinks[i].counters.put(name, frozen);
+                }
+            }
+        }
+        else if (metric instanceof Histogram)
+        {
+            Histogram histogram = (Histogram) metric;
+            Histogram frozen = new FrozenHistogram(histogram.getCount(), histogram.getSnapshot());
+            for (int i = 0; i < sinks.length; i++)
+            {
+                if (wanted[i])
+                {
+                    sinks[i].histograms.put(name, frozen);
+                }
+            }
+        }
+        else if (metric instanceof Meter)
+        {
+            Meter frozen = new FrozenMeter((Meter) metric);
+            for (int i = 0; i < sinks.length; i++)
+            {
+                if (wanted[i])
+                {
+                    sinks[i].meters.put(name, frozen);
+                }
+            }
+        }
+        else if (metric instanceof Timer)
+        {
+            Timer frozen = new FrozenTimer((Timer) metric);
+            for (int i = 0; i < sinks.length; i++)
+            {
+                if (wanted[i])
+                {
+                    sinks[i].timers.put(name, frozen);
+                }
+            }
+        }
+    }
+
+    private static class Sink
+    {
+        final ScheduledReporter reporter;
+        final MetricFilter filter;
+        final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        final SortedMap<String, Counter> counters = new TreeMap<String, Counter>();
+        final SortedMap<String, Histogram> histograms = new TreeMap<String, Histogram>();
+        final SortedMap<String, Meter> meters = new TreeMap<String, Meter>();
+        final SortedMap<String, Timer> timers = new TreeMap<String, Timer>();
+
+        Sink(ScheduledReporter reporter, MetricFilter filter)
+        {
+            this.reporter = reporter;
+            this.filter = filter;
+        }
+
+        void clear()
+        {
+            gauges.clear();
+            counters.clear();
+            histograms.clear();
+            meters.clear();
+            timers.clear();
+        }
+    }
+
+    static class FrozenGauge implements Gauge<Object>
+    {
+        private final Object value;
+
+        FrozenGauge(Object value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public Object getValue()
+        {
+            return value;
+        }
+    }
+
+    static class FrozenCounter extends Counter
+    {
+        private final long count;
+
+        FrozenCounter(long count)
+        {
+            this.count = count;
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public void inc(long n)
+        {
+            throw new UnsupportedOperationException("frozen counter");
+        }
+
+        @Override
+        public void dec(long n)
+        {
+            throw new UnsupportedOperationException("frozen counter");
+        }
+    }
+
+    static class FrozenHistogram extends Histogram
+    {
+        private final long count;
+        private final Snapshot snapshot;
+
+        FrozenHistogram(long count, Snapshot snapshot)
+        {
+            super(null);
+            this.count = count;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public Snapshot getSnapshot()
+        {
+            return snapshot;
+        }
+
+        @Override
+        public void update(long value)
+        {
+            throw new UnsupportedOperationException("frozen histogram");
+        }
+    }
+
+    static class FrozenMeter extends Meter
+    {
+        private final long count;
+        private final double meanRate;
+        private final double oneMinuteRate;
+        private final double fiveMinuteRate;
+        private final double fifteenMinuteRate;
+
+        FrozenMeter(Meter meter)
+        {
+            this.count = meter.getCount();
+            this.meanRate = meter.getMeanRate();
+            this.oneMinuteRate = meter.getOneMinuteRate();
+            this.fiveMinuteRate = meter.getFiveMinuteRate();
+            this.fifteenMinuteRate = meter.getFifteenMinuteRate();
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public double getMeanRate()
+        {
+            return meanRate;
+        }
+
+        @Override
+        public double getOneMinuteRate()
+        {
+            return oneMinuteRate;
+        }
+
+        @Override
+        public double getFiveMinuteRate()
+        {
+            return fiveMinuteRate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate()
+        {
+            return fifteenMinuteRate;
+        }
+
+        @Override
+        public void mark(long n)
+        {
+            throw new UnsupportedOperationException("frozen meter");
+        }
+    }
+
+    static class FrozenTimer extends Timer
+    {
+        private final long count;
+        private final double meanRate;
+        private final double oneMinuteRate;
+        private final double fiveMinuteRate;
+        private final double fifteenMinuteRate;
+        private final Snapshot snapshot;
+
+        FrozenTimer(Timer timer)
+        {
+            super((Reservoir) null);
+            this.count = timer.getCount();
+            this.meanRate = timer.getMeanRate();
+            this.oneMinuteRate = timer.getOneMinuteRate();
+            this.fiveMinuteRate = timer.getFiveMinuteRate();
+            this.fifteenMinuteRate = timer.getFifteenMinuteRate();
+            this.snapshot = timer.getSnapshot();
+        }
+
+        @Override
+        public long getCount()
+        {
+            return count;
+        }
+
+        @Override
+        public double getMeanRate()
+        {
+            return meanRate;
+        }
+
+        @Override
+        public double getOneMinuteRate()
+        {
+            return oneMinuteRate;
+        }
+
+        @Override
+        public double getFiveMinuteRate()
+        {
+            return fiveMinuteRate;
+        }
+
+        @Override
+        public double getFifteenMinuteRate()
+        {
+            return fifteenMinuteRate;
+        }
+
+        @Override
+        public Snapshot getSnapshot()
+        {
+            return snapshot;
+        }
+    }
+}
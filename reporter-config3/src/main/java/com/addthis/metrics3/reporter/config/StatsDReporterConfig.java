@@ -16,10 +16,13 @@ package com.addthis.metrics3.reporter.config;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.addthis.metrics.reporter.config.AbstractStatsDReporterConfig;
 import com.addthis.metrics.reporter.config.HostPort;
+import com.addthis.metrics3.reporter.config.statsd.StatsDPacketSender;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
 import com.readytalk.metrics.StatsDReporter;
 
 import org.slf4j.Logger;
@@ -28,17 +31,24 @@ import org.slf4j.LoggerFactory;
 public class StatsDReporterConfig extends AbstractStatsDReporterConfig implements MetricsReporterConfigThree
 {
     private static final String REPORTER_CLASS = "com.readytalk.metrics.StatsDReporter";
+    private static final String PACKED_REPORTER_CLASS = "com.codahale.metrics.ScheduledReporter";
     private static final Logger log = LoggerFactory.getLogger(StatsDReporterConfig.class);
 
-    private List<StatsDReporter> reporters = new ArrayList<StatsDReporter>();
+    private List<ScheduledReporter> reporters = new ArrayList<ScheduledReporter>();
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
 
     @Override
     public boolean enable(MetricRegistry registry)
     {
-        if (!setup(REPORTER_CLASS))
+        boolean packed = isPacked() || isDeltaCounters();
+        if (!setup(packed ? PACKED_REPORTER_CLASS : REPORTER_CLASS))
         {
             return false;
         }
+        if (packed)
+        {
+            return enablePacked(registry);
+        }
         boolean failures = false;
         for (HostPort hostPort : getFullHostList())
         {
@@ -50,9 +60,9 @@ public class StatsDReporterConfig extends AbstractStatsDReporterConfig implement
                     .convertRatesTo(getRealRateunit())
                     .convertDurationsTo(getRealDurationunit())
                     .prefixedWith(getResolvedPrefix())
-                    .filter(MetricFilterTransformer.generateFilter(getPredicate()))
+                    .filter(MetricFilterTransformer.generateFilter(getPredicate(), registry))
                     .build(hostPort.getHost(), hostPort.getPort());
-                reporter.start(getPeriod(), getRealTimeunit());
+                reporterScheduler.schedule(reporter, this, registry);
                 reporters.add(reporter);
             }
             catch (Exception e)
@@ -65,18 +75,64 @@ public class StatsDReporterConfig extends AbstractStatsDReporterConfig implement
         return !failures;
     }
 
+    private boolean enablePacked(MetricRegistry registry)
+    {
+        List<String> hosts = new ArrayList<String>();
+        List<Integer> ports = new ArrayList<Integer>();
+        for (HostPort hostPort : getFullHostList())
+        {
+            hosts.add(hostPort.getHost());
+            ports.add(hostPort.getPort());
+        }
+        PackedStatsDReporter reporter = null;
+        try
+        {
+            log.info("Enabling packed StatsD reporter to {}", hosts);
+            TimeUnit rateUnit = getRealRateunit();
+            TimeUnit durationUnit = getRealDurationunit();
+            reporter = new PackedStatsDReporter(
+                new StatsDPacketSender(hosts, ports, getMaxPacketSize()),
+                registry, getResolvedPrefix(),
+                MetricFilterTransformer.generateFilter(getPredicate(), registry),
+                rateUnit, durationUnit);
+            reporter.setDeltaCounters(isDeltaCounters());
+            reporterScheduler.schedule(reporter, this, registry);
+            reporters.add(reporter);
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.error("Failed to enable packed StatsD reporter to {}", hosts, e);
+            if (reporter != null)
+            {
+                reporter.stop();
+            }
+            return false;
+        }
+    }
+
+    private boolean isDeltaCounters()
+    {
+        return "delta".equals(getCounterMode());
+    }
+
     @Override
     public void report() {
-        for (StatsDReporter reporter : reporters)
+        for (ScheduledReporter reporter : reporters)
         {
             reporter.report();
         }
     }
 
     void stopForTests() {
-        for (StatsDReporter reporter : reporters)
+        for (ScheduledReporter reporter : reporters)
         {
             reporter.stop();
         }
     }
+
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
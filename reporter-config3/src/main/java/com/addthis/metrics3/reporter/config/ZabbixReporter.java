@@ -12,18 +12,25 @@
  * limitations under the License.
  */
 
+
 package com.addthis.metrics3.reporter.config;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.addthis.metrics3.reporter.config.zabbix.ZabbixFrameEncoder;
+import com.addthis.metrics3.reporter.config.zabbix.ZabbixTrapperClient;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
@@ -34,106 +41,433 @@ import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
-import io.github.hengyunabc.zabbix.sender.DataObject;
-import io.github.hengyunabc.zabbix.sender.SenderResult;
 import io.github.hengyunabc.zabbix.sender.ZabbixSender;
 
+/**
+ * Sends the registry to a Zabbix trapper.
+ * <p>
+ * The items of a tick are split into requests of at most {@code batchSize}
+ * items, which are sent over up to {@code parallelism} connections at once
+ * and share one timestamp.  The trapper's answers are added up and logged
+ * once per tick, so a large registry neither builds one huge request that
+ * outlives the socket timeout nor floods the log.
+ * <p>
+ * Item keys come from a {@link MetricPathCache}, and each request is written
+ * by a {@link ZabbixFrameEncoder} into a buffer kept across ticks, one per
+ * connection.  The report thread encodes the next request while earlier ones
+ * are in flight, and waits for a buffer's previous request before reusing it.
+ * <p>
+ * With {@link #setSendUnchanged(boolean, int)} turned off an item is only
+ * sent when its value differs from the last one sent, or when it was last
+ * sent a heartbeat interval ago, so Zabbix stores no flat history and
+ * {@code nodata()} triggers still see the item.  The last value, as raw bits,
+ * and when it was sent are kept as two {@code long}s per item with the
+ * metric's cached keys.  They are only updated once the trapper accepted
+ * the item's request, so a request that failed or went unanswered is sent
+ * again on the next tick, while items the trapper answered as failed, such
+ * as keys that are not trapper items, are not.  Values that are neither integral nor floating point numbers are
+ * always sent.
+ */
 public class ZabbixReporter extends ScheduledReporter
 {
     private static final Logger log = LoggerFactory.getLogger(ZabbixReporter.class);
-    private final ZabbixSender sender;
-    private final String hostName;
-    private final String prefix;
+
+    static final int DEFAULT_BATCH_SIZE = 250;
+
+    private static final int VALUE = 0;
+    private static final int COUNT = 1;
+    private static final int MEAN_RATE = 2;
+    private static final int M1_RATE = 3;
+    private static final int M5_RATE = 4;
+    private static final int M15_RATE = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int MEAN = 8;
+    private static final int STDDEV = 9;
+    private static final int MEDIAN = 10;
+    private static final int P75 = 11;
+    private static final int P95 = 12;
+    private static final int P98 = 13;
+    private static final int P99 = 14;
+    private static final int P999 = 15;
+
+    private static final String[] MEASUREMENTS = {
+        null, ".count", ".meanRate", ".1-minuteRate", ".5-minuteRate", ".15-minuteRate",
+        ".min", ".max", ".mean", ".stddev", ".median", ".75th", ".95th", ".98th", ".99th", ".99.9th"
+    };
+
+    private final ZabbixTrapperClient client;
+    private final MetricRegistry registry;
+    private final MetricPathCache keys;
+    private final int batchSize;
+    private final ZabbixFrameEncoder[] encoders;
+    private final SentItems[] sentItems;
+    private final Future<Boolean>[] pending;
+    private final ExecutorService sendExecutor;
+    private final Results results = new Results();
+    private volatile boolean sendUnchanged = true;
+    private volatile int heartbeatSeconds;
+    private ZabbixFrameEncoder encoder;
+    private int slot;
+    private long clock;
 
     public ZabbixReporter(ZabbixSender sender, String hostName, String prefix,
                           MetricRegistry registry, String name, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit)
     {
-        super(registry, name, filter, rateUnit, durationUnit);
-        this.sender = sender;
-        this.hostName = hostName;
-        this.prefix = prefix;
-    }
-
-    private DataObject toDataObject(String key, String suffix, Object value) {
-        return DataObject.builder().host(hostName).key(prefix + key + suffix).value("" + value).build();
+        this(sender, hostName, prefix, registry, name, filter, rateUnit, durationUnit, Integer.MAX_VALUE, 1);
     }
 
-    private void addSnapshotDataObject(String key, Snapshot snapshot, List<DataObject> dataObjectList) {
-        dataObjectList.add(toDataObject(key, ".min", snapshot.getMin()));
-        dataObjectList.add(toDataObject(key, ".max", snapshot.getMax()));
-        dataObjectList.add(toDataObject(key, ".mean", snapshot.getMean()));
-        dataObjectList.add(toDataObject(key, ".stddev", snapshot.getStdDev()));
-        dataObjectList.add(toDataObject(key, ".median", snapshot.getMedian()));
-        dataObjectList.add(toDataObject(key, ".75th", snapshot.get75thPercentile()));
-        dataObjectList.add(toDataObject(key, ".95th", snapshot.get95thPercentile()));
-        dataObjectList.add(toDataObject(key, ".98th", snapshot.get98thPercentile()));
-        dataObjectList.add(toDataObject(key, ".99th", snapshot.get99thPercentile()));
-        dataObjectList.add(toDataObject(key, ".99.9th", snapshot.get999thPercentile()));
+    public ZabbixReporter(ZabbixSender sender, String hostName, String prefix,
+                          MetricRegistry registry, String name, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit,
+                          int batchSize, int parallelism)
+    {
+        this(new ZabbixTrapperClient(sender.getHost(), sender.getPort(), sender.getConnectTimeout(), sender.getSocketTimeout()),
+             hostName, prefix, registry, name, filter, rateUnit, durationUnit, batchSize, parallelism);
     }
 
-    private void addSnapshotDataObjectWithConvertDuration(String key, Snapshot snapshot, List<DataObject> dataObjectList) {
-        dataObjectList.add(toDataObject(key, ".min", convertDuration(snapshot.getMin())));
-        dataObjectList.add(toDataObject(key, ".max", convertDuration(snapshot.getMax())));
-        dataObjectList.add(toDataObject(key, ".mean", convertDuration(snapshot.getMean())));
-        dataObjectList.add(toDataObject(key, ".stddev", convertDuration(snapshot.getStdDev())));
-        dataObjectList.add(toDataObject(key, ".median", convertDuration(snapshot.getMedian())));
-        dataObjectList.add(toDataObject(key, ".75th", convertDuration(snapshot.get75thPercentile())));
-        dataObjectList.add(toDataObject(key, ".95th", convertDuration(snapshot.get95thPercentile())));
-        dataObjectList.add(toDataObject(key, ".98th", convertDuration(snapshot.get98thPercentile())));
-        dataObjectList.add(toDataObject(key, ".99th", convertDuration(snapshot.get99thPercentile())));
-        dataObjectList.add(toDataObject(key, ".99.9th", convertDuration(snapshot.get999thPercentile())));
+    public ZabbixReporter(ZabbixTrapperClient client, String hostName, String prefix,
+                          MetricRegistry registry, String name, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit,
+                          int batchSize, int parallelism)
+    {
+        super(registry, name, filter, rateUnit, durationUnit);
+        this.client = client;
+        this.registry = registry;
+        this.batchSize = batchSize;
+        this.keys = new MetricPathCache(prefix, MEASUREMENTS) {
+            @Override
+            protected String render(String prefix, String name, String suffix) {
+                return ZabbixFrameEncoder.escape(suffix == null ? prefix + name : prefix + name + suffix);
+            }
+        };
+        registry.addListener(keys);
+        this.encoders = new ZabbixFrameEncoder[Math.max(1, parallelism)];
+        for (int i = 0; i < encoders.length; i++) {
+            encoders[i] = new ZabbixFrameEncoder(hostName, 8192);
+        }
+        this.sentItems = new SentItems[encoders.length];
+        for (int i = 0; i < sentItems.length; i++) {
+            sentItems[i] = new SentItems();
+        }
+        @SuppressWarnings("unchecked")
+        Future<Boolean>[] futures = new Future[encoders.length];
+        this.pending = futures;
+        this.sendExecutor = parallelism > 1
+                            ? Executors.newFixedThreadPool(parallelism, new ReporterScheduler.DaemonThreadFactory("zabbix-send"))
+                            : null;
     }
 
-    private void addMeterDataObject(String key, Metered meter, List<DataObject> dataObjectList) {
-        dataObjectList.add(toDataObject(key, ".count", meter.getCount()));
-        dataObjectList.add(toDataObject(key, ".meanRate", convertRate(meter.getMeanRate())));
-        dataObjectList.add(toDataObject(key, ".1-minuteRate", convertRate(meter.getOneMinuteRate())));
-        dataObjectList.add(toDataObject(key, ".5-minuteRate", convertRate(meter.getFiveMinuteRate())));
-        dataObjectList.add(toDataObject(key, ".15-minuteRate", convertRate(meter.getFifteenMinuteRate())));
+    /**
+     * @param sendUnchanged    send every item every tick, the default
+     * @param heartbeatSeconds when not sending unchanged items, send them
+     *                         anyway once this many seconds passed since they
+     *                         were last sent; 0 never does
+     */
+    public void setSendUnchanged(boolean sendUnchanged, int heartbeatSeconds) {
+        this.sendUnchanged = sendUnchanged;
+        this.heartbeatSeconds = heartbeatSeconds;
     }
 
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
                        SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
-        List<DataObject> dataObjectList = new ArrayList<DataObject>();
-        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-            DataObject dataObject = DataObject.builder().host(hostName).key(prefix + entry.getKey())
-                                              .value(entry.getValue().getValue().toString()).build();
-            dataObjectList.add(dataObject);
+        try {
+            // requests left over from an interrupted tick still own their buffers
+            awaitAll();
+            results.reset();
+            clock = System.currentTimeMillis() / 1000;
+            slot = 0;
+            encoder = encoders[slot];
+            begin();
+
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                Object value = entry.getValue().getValue();
+                if (value == null) {
+                    continue;
+                }
+                MetricPathCache.Paths metric = keys.get(entry.getKey());
+                if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                    if (!due(metric, VALUE, ((Number) value).longValue())) {
+                        continue;
+                    }
+                } else if (value instanceof Double || value instanceof Float) {
+                    if (!due(metric, VALUE, Double.doubleToLongBits(((Number) value).doubleValue()))) {
+                        continue;
+                    }
+                }
+                encoder.add(metric.get(VALUE), value);
+                added();
+            }
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                add(keys.get(entry.getKey()), VALUE, entry.getValue().getCount());
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                addSnapshot(keys.get(entry.getKey()), entry.getValue().getSnapshot(), false);
+            }
+            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+                addMetered(keys.get(entry.getKey()), entry.getValue());
+            }
+            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+                MetricPathCache.Paths metric = keys.get(entry.getKey());
+                Timer timer = entry.getValue();
+                addMetered(metric, timer);
+                addSnapshot(metric, timer.getSnapshot(), true);
+            }
+            if (encoder.getItemCount() > 0) {
+                dispatch();
+            }
+            awaitAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         }
 
-        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-            DataObject dataObject = DataObject.builder().host(hostName).key(prefix + entry.getKey())
-                                              .value("" + entry.getValue().getCount()).build();
-            dataObjectList.add(dataObject);
+        if (results.requests == 0) {
+            return;
+        }
+        if (!results.success()) {
+            log.warn("metrics reporting to zabbix {} unsuccessful: {}", client.getAddress(), results);
+        } else if (log.isDebugEnabled()) {
+            log.debug("metrics reported to zabbix {}: {}", client.getAddress(), results);
+        }
+    }
+
+    private void addSnapshot(MetricPathCache.Paths metric, Snapshot snapshot, boolean durations)
+            throws InterruptedException {
+        if (durations) {
+            add(metric, MIN, convertDuration(snapshot.getMin()));
+            add(metric, MAX, convertDuration(snapshot.getMax()));
+        } else {
+            add(metric, MIN, snapshot.getMin());
+            add(metric, MAX, snapshot.getMax());
+        }
+        add(metric, MEAN, convert(snapshot.getMean(), durations));
+        add(metric, STDDEV, convert(snapshot.getStdDev(), durations));
+        add(metric, MEDIAN, convert(snapshot.getMedian(), durations));
+        add(metric, P75, convert(snapshot.get75thPercentile(), durations));
+        add(metric, P95, convert(snapshot.get95thPercentile(), durations));
+        add(metric, P98, convert(snapshot.get98thPercentile(), durations));
+        add(metric, P99, convert(snapshot.get99thPercentile(), durations));
+        add(metric, P999, convert(snapshot.get999thPercentile(), durations));
+    }
+
+    private double convert(double value, boolean duration) {
+        return duration ? convertDuration(value) : value;
+    }
+
+    private void addMetered(MetricPathCache.Paths metric, Metered meter) throws InterruptedException {
+        add(metric, COUNT, meter.getCount());
+        add(metric, MEAN_RATE, convertRate(meter.getMeanRate()));
+        add(metric, M1_RATE, convertRate(meter.getOneMinuteRate()));
+        add(metric, M5_RATE, convertRate(meter.getFiveMinuteRate()));
+        add(metric, M15_RATE, convertRate(meter.getFifteenMinuteRate()));
+    }
+
+    private void add(MetricPathCache.Paths metric, int measurement, long value) throws InterruptedException {
+        if (due(metric, measurement, value)) {
+            encoder.add(metric.get(measurement), value);
+            added();
+        }
+    }
+
+    private void add(MetricPathCache.Paths metric, int measurement, double value) throws InterruptedException {
+        if (due(metric, measurement, Double.doubleToLongBits(value))) {
+            encoder.add(metric.get(measurement), value);
+            added();
+        }
+    }
+
+    /**
+     * @return whether the item should be sent this tick, remembering it with
+     *         the current request if so
+     */
+    private boolean due(MetricPathCache.Paths metric, int measurement, long bits) {
+        if (sendUnchanged) {
+            return true;
+        }
+        int sentAt = MEASUREMENTS.length + measurement;
+        long lastSent = metric.getValue(sentAt);
+        if (lastSent != 0 && metric.getValue(measurement) == bits
+            && (heartbeatSeconds <= 0 || clock - lastSent < heartbeatSeconds)) {
+            return false;
         }
+        sentItems[slot].add(metric, measurement, bits);
+        return true;
+    }
 
-        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-            Histogram histogram = entry.getValue();
-            Snapshot snapshot = histogram.getSnapshot();
-            addSnapshotDataObject(entry.getKey(), snapshot, dataObjectList);
+    private void added() throws InterruptedException {
+        if (encoder.getItemCount() >= batchSize) {
+            dispatch();
+            begin();
         }
+    }
+
+    private void begin() {
+        encoder.begin(clock);
+        sentItems[slot].reset(clock);
+    }
 
-        for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-            Meter meter = entry.getValue();
-            addMeterDataObject(entry.getKey(), meter, dataObjectList);
+    /**
+     * Sends the request in the current buffer, then moves on to the next
+     * buffer once its previous request is done.
+     */
+    private void dispatch() throws InterruptedException {
+        int length = encoder.end();
+        results.requests++;
+        if (sendExecutor == null) {
+            try {
+                ZabbixTrapperClient.Response response = client.send(encoder.getBuffer(), length);
+                results.add(response);
+                if (response.isAccepted()) {
+                    sentItems[slot].apply();
+                }
+            } catch (IOException e) {
+                results.failedRequests++;
+                log.error("failed to report metrics to " + client.getAddress(), e);
+            }
+            return;
         }
+        pending[slot] = sendExecutor.submit(new SendTask(encoder.getBuffer(), length));
+        slot = (slot + 1) % encoders.length;
+        await(slot);
+        encoder = encoders[slot];
+    }
 
-        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-            Timer timer = entry.getValue();
-            addMeterDataObject(entry.getKey(), timer, dataObjectList);
-            addSnapshotDataObjectWithConvertDuration(entry.getKey(), timer.getSnapshot(), dataObjectList);
+    private void awaitAll() throws InterruptedException {
+        for (int i = 0; i < pending.length; i++) {
+            await(i);
         }
+    }
 
+    /**
+     * Waits for the request of a buffer, remembering its items as sent on
+     * the report thread if it succeeded.
+     */
+    private void await(int slot) throws InterruptedException {
+        Future<Boolean> request = pending[slot];
+        if (request == null) {
+            return;
+        }
         try {
-            SenderResult senderResult = sender.send(dataObjectList);
-            if (!senderResult.success()) {
-                log.warn("metrics reporting to zabbix {} unsuccessful: {}", sender.getHost(), sender.getPort(), senderResult);
-            } else if (log.isDebugEnabled()) {
-                log.debug("metrics reported to zabbix {} {}: {}", sender.getHost(), sender.getPort(), senderResult);
+            if (request.get()) {
+                sentItems[slot].apply();
+            }
+        } catch (ExecutionException e) {
+            log.error("failed to report metrics to " + client.getAddress(), e.getCause());
+        }
+        pending[slot] = null;
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        registry.removeListener(keys);
+        if (sendExecutor != null) {
+            sendExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The trapper's answers to the requests of one tick, added up.
+     */
+    private static class Results {
+        int requests;
+        int failedRequests;
+        int processed;
+        int failed;
+        int total;
+        float spentSeconds;
+
+        void reset() {
+            requests = 0;
+            failedRequests = 0;
+            processed = 0;
+            failed = 0;
+            total = 0;
+            spentSeconds = 0;
+        }
+
+        synchronized void add(ZabbixTrapperClient.Response response) {
+            if (!response.success()) {
+                failedRequests++;
+            }
+            processed += response.getProcessed();
+            failed += response.getFailed();
+            total += response.getTotal();
+            spentSeconds += response.getSpentSeconds();
+        }
+
+        synchronized void addFailure() {
+            failedRequests++;
+        }
+
+        boolean success() {
+            return failedRequests == 0;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "requests: " + requests + "; failed requests: " + failedRequests + "; processed: " + processed
+                   + "; failed: " + failed + "; total: " + total + "; seconds spent: " + spentSeconds;
+        }
+    }
+
+    /**
+     * The items of one request that {@link #due} let through, to be
+     * remembered as sent once the request succeeds.
+     */
+    private static class SentItems {
+        private MetricPathCache.Paths[] metrics = new MetricPathCache.Paths[16];
+        private int[] measurements = new int[16];
+        private long[] bits = new long[16];
+        private int size;
+        private long clock;
+
+        void reset(long clock) {
+            Arrays.fill(metrics, 0, size, null);
+            size = 0;
+            this.clock = clock;
+        }
+
+        void add(MetricPathCache.Paths metric, int measurement, long value) {
+            if (size == metrics.length) {
+                metrics = Arrays.copyOf(metrics, size * 2);
+                measurements = Arrays.copyOf(measurements, size * 2);
+                bits = Arrays.copyOf(bits, size * 2);
+            }
+            metrics[size] = metric;
+            measurements[size] = measurement;
+            bits[size] = value;
+            size++;
+        }
+
+        void apply() {
+            for (int i = 0; i < size; i++) {
+                metrics[i].setValue(measurements[i], bits[i]);
+                metrics[i].setValue(MEASUREMENTS.length + measurements[i], clock);
+            }
+            reset(clock);
+        }
+    }
+
+    private class SendTask implements Callable<Boolean> {
+        private final byte[] frame;
+        private final int length;
+
+        SendTask(byte[] frame, int length) {
+            this.frame = frame;
+            this.length = length;
+        }
+
+        @Override
+        public Boolean call() throws IOException {
+            try {
+                ZabbixTrapperClient.Response response = client.send(frame, length);
+                results.add(response);
+                return response.isAccepted();
+            } catch (IOException | RuntimeException e) {
+                results.addFailure();
+                throw e;
             }
-        } catch (IOException e) {
-            log.error("failed to report metrics to " + sender.getHost() + ':' + sender.getPort(), e);
         }
     }
 }
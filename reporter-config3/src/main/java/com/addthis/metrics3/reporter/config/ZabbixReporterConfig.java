@@ -32,6 +32,7 @@ public class ZabbixReporterConfig extends AbstractZabbixReporterConfig implement
     private static final String SENDER_CLASS = "io.github.hengyunabc.zabbix.sender.ZabbixSender";
 
     private final List<ZabbixReporter> reporters = new ArrayList<ZabbixReporter>();
+    private ReporterScheduler reporterScheduler = ReporterScheduler.DEFAULT;
     private MetricRegistry registry;
 
     @Override
@@ -54,11 +55,18 @@ public class ZabbixReporterConfig extends AbstractZabbixReporterConfig implement
         // note: don't go via InetAddress.getLocalHost() as that may return unexpected results or
         // take a long time (DNS roundtrips/timeouts) or even an exception being throws,
 
+        MetricFilter filter = MetricFilterTransformer.generateFilter(getPredicate(), registry);
         for (HostPort hostPort : getFullHostList())
         {
             ZabbixSender sender = new ZabbixSender(hostPort.getHost(), hostPort.getPort(), connectTimeout, socketTimeout);
-            MetricFilter filter = MetricFilterTransformer.generateFilter(getPredicate());
-            ZabbixReporter reporter = new ZabbixReporter(sender, hostName, prefix, registry, name, filter, getRealRateunit(), getRealDurationunit());
+            ZabbixReporter reporter = new ZabbixReporter(sender, hostName, prefix, registry, name, filter, getRealRateunit(), getRealDurationunit(),
+                                                         batchSize, parallelism);
+            reporter.setSendUnchanged(sendUnchanged, heartbeatInterval);
+            // outside a pipeline Zabbix reporters are never started, as they always were
+            if (reporterScheduler.isPipeline())
+            {
+                reporterScheduler.schedule(reporter, this, registry);
+            }
             reporters.add(reporter);
         }
 
@@ -74,4 +82,9 @@ public class ZabbixReporterConfig extends AbstractZabbixReporterConfig implement
     {
         // noop
     }
+
+    void setReporterScheduler(ReporterScheduler reporterScheduler)
+    {
+        this.reporterScheduler = reporterScheduler;
+    }
 }
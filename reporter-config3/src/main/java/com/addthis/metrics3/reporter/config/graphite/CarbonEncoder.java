@@ -0,0 +1,45 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+/**
+ * Encodes one tick's values for one of carbon's receivers into a reused
+ * buffer.  Not thread safe.
+ */
+public interface CarbonEncoder {
+
+    void reset();
+
+    void add(String path, long value, long timestamp);
+
+    void add(String path, double value, long timestamp);
+
+    /**
+     * @param path already sanitized and encoded as UTF-8
+     */
+    void add(byte[] path, long value, long timestamp);
+
+    /**
+     * @param path already sanitized and encoded as UTF-8
+     */
+    void add(byte[] path, double value, long timestamp);
+
+    /**
+     * @return everything added since the last {@link #reset()}, ready to be
+     *         written to the receiver
+     */
+    byte[] toByteArray();
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The consistent hash ring of carbon-relay's {@code carbon_ch} hashing, so a
+ * metric path lands on the same node here as it would behind a relay
+ * configured with the same destinations.
+ * <p>
+ * Each node is placed 100 times, at the first two bytes of the md5 of
+ * {@code "('server', instance):i"} (the Python repr of carbon's node key),
+ * moving up by one on collision.  A path goes to the first node at or after
+ * its own position, wrapping around.  Nodes are identified by their index in
+ * the constructor's lists.
+ * <p>
+ * Not thread safe.
+ */
+public class CarbonHashRing {
+
+    static final int REPLICAS = 100;
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+    private final MessageDigest md5;
+
+    /**
+     * @param servers   node host names, as written in the relay's destinations
+     * @param instances node instance names, {@code null} entries for none
+     */
+    public CarbonHashRing(List<String> servers, List<String> instances) {
+        this.md5 = newMd5();
+        for (int node = 0; node < servers.size(); node++) {
+            String key = "(" + pythonRepr(servers.get(node)) + ", " + pythonRepr(instances.get(node)) + ")";
+            for (int i = 0; i < REPLICAS; i++) {
+                int position = position(key + ":" + i);
+                while (ring.containsKey(position)) {
+                    position++;
+                }
+                ring.put(position, node);
+            }
+        }
+    }
+
+    public int getNode(String path) {
+        return getNode(path.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param path encoded as UTF-8
+     */
+    public int getNode(byte[] path) {
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(position(path));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    private int position(String key) {
+        return position(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int position(byte[] key) {
+        byte[] digest = md5.digest(key);
+        return ((digest[0] & 0xff) << 8) | (digest[1] & 0xff);
+    }
+
+    static String pythonRepr(String value) {
+        if (value == null) {
+            return "None";
+        }
+        char quote = value.indexOf('\'') >= 0 && value.indexOf('"') < 0 ? '"' : '\'';
+        StringBuilder repr = new StringBuilder(value.length() + 2).append(quote);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == quote) {
+                repr.append('\\');
+            }
+            repr.append(c);
+        }
+        return repr.append(quote).toString();
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
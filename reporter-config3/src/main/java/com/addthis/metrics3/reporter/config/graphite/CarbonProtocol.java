@@ -0,0 +1,42 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+/**
+ * The carbon receivers a {@link CarbonEncoder} can be built for.
+ */
+public enum CarbonProtocol {
+    /**
+     * The line receiver, {@code path value timestamp\n} per value.
+     */
+    plaintext {
+        @Override
+        public CarbonEncoder newEncoder(int initialCapacity, int batchSize) {
+            return new LineEncoder(initialCapacity);
+        }
+    },
+    /**
+     * The pickle receiver, {@code batchSize} values per frame.
+     */
+    pickle {
+        @Override
+        public CarbonEncoder newEncoder(int initialCapacity, int batchSize) {
+            return new PickleEncoder(initialCapacity, batchSize);
+        }
+    };
+
+    public abstract CarbonEncoder newEncoder(int initialCapacity, int batchSize);
+}
@@ -0,0 +1,30 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Delivers already encoded payloads to one carbon host.  Each sender owns its
+ * host's connection state and is only ever used by one thread at a time.
+ */
+public interface CarbonSender extends Closeable {
+
+    void send(byte[] payload, int offset, int length) throws IOException;
+
+    String getAddress();
+}
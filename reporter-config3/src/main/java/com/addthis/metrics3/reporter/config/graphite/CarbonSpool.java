@@ -0,0 +1,247 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded FIFO of payloads in a memory-mapped ring buffer file.
+ * <p>
+ * The file starts with a header holding the logical read and write positions,
+ * followed by length-prefixed records that wrap around the end of the file.
+ * The header is updated after every append and removal, so the spool
+ * survives a restart of the process.  When an append does not fit, the
+ * oldest records are dropped to make room; a payload larger than the whole
+ * spool is dropped instead.  A record whose length does not fit what the
+ * spool holds, as left by a crash in the middle of an append, empties the
+ * spool.
+ * <p>
+ * The file is locked while open.  Not thread safe.
+ */
+public class CarbonSpool {
+
+    private static final Logger log = LoggerFactory.getLogger(CarbonSpool.class);
+
+    private static final int MAGIC = 0x43535031; // "CSP1"
+    private static final int HEADER_SIZE = 32;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    private static final int RECORD_HEADER = 4;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private long head;
+    private long tail;
+
+    /**
+     * @param size size of the file in bytes, header included
+     */
+    public CarbonSpool(File file, int size) throws IOException {
+        if (size <= HEADER_SIZE + RECORD_HEADER) {
+            throw new IllegalArgumentException("spool size must be more than " + (HEADER_SIZE + RECORD_HEADER));
+        }
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            this.lock = tryLock(channel);
+            boolean resized = raf.length() != size;
+            if (resized) {
+                raf.setLength(size);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.capacity = size - HEADER_SIZE;
+            if (!resized && buffer.getInt(0) == MAGIC && isValid(buffer.getLong(HEAD_OFFSET), buffer.getLong(TAIL_OFFSET))) {
+                head = buffer.getLong(HEAD_OFFSET);
+                tail = buffer.getLong(TAIL_OFFSET);
+                if (tail > head) {
+                    log.info("Spool {} holds {} bytes from a previous run", file, tail - head);
+                }
+            } else {
+                buffer.putInt(0, MAGIC);
+                writePositions();
+            }
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private FileLock tryLock(FileChannel channel) throws IOException {
+        FileLock fileLock;
+        try {
+            fileLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            throw new IOException("spool " + file + " is already in use");
+        }
+        return fileLock;
+    }
+
+    private boolean isValid(long readPosition, long writePosition) {
+        return readPosition >= 0 && writePosition >= readPosition && writePosition - readPosition <= capacity;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return bytes held, record headers included
+     */
+    public long size() {
+        return tail - head;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return false if the payload is larger than the spool and was dropped
+     */
+    public boolean append(byte[] payload, int offset, int length) {
+        long needed = RECORD_HEADER + (long) length;
+        if (needed > capacity) {
+            return false;
+        }
+        int dropped = 0;
+        while (capacity - (tail - head) < needed) {
+            int oldest = headLength();
+            if (oldest < 0) {
+                break;
+            }
+            head += RECORD_HEADER + oldest;
+            dropped++;
+        }
+        if (dropped > 0) {
+            log.warn("Spool {} is full, dropped its {} oldest reports", file, dropped);
+        }
+        ByteBuffer lengthBytes = ByteBuffer.allocate(RECORD_HEADER).putInt(0, length);
+        write(tail, lengthBytes.array(), 0, RECORD_HEADER);
+        write(tail + RECORD_HEADER, payload, offset, length);
+        tail += needed;
+        writePositions();
+        return true;
+    }
+
+    /**
+     * @return a copy of the oldest payload, or null if the spool is empty
+     */
+    public byte[] peek() {
+        if (isEmpty()) {
+            return null;
+        }
+        int length = headLength();
+        if (length < 0) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        read(head + RECORD_HEADER, payload);
+        return payload;
+    }
+
+    /**
+     * Drops the oldest payload.
+     */
+    public void remove() {
+        int length = isEmpty() ? -1 : headLength();
+        if (length >= 0) {
+            head += RECORD_HEADER + length;
+            if (head == tail) {
+                // start over at the beginning of the file
+                head = 0;
+                tail = 0;
+            }
+            writePositions();
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            buffer.force();
+            lock.release();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the length of the oldest payload, or -1 if the spool was
+     *         emptied because that length cannot be right
+     */
+    private int headLength() {
+        int length = readLength(head);
+        if (length < 0 || RECORD_HEADER + (long) length > size()) {
+            log.warn("Spool {} holds a damaged record, dropped its {} bytes", file, size());
+            head = 0;
+            tail = 0;
+            writePositions();
+            return -1;
+        }
+        return length;
+    }
+
+    private int readLength(long position) {
+        byte[] length = new byte[RECORD_HEADER];
+        read(position, length);
+        return ByteBuffer.wrap(length).getInt();
+    }
+
+    private void writePositions() {
+        buffer.putLong(HEAD_OFFSET, head);
+        buffer.putLong(TAIL_OFFSET, tail);
+    }
+
+    private void write(long position, byte[] source, int offset, int length) {
+        int index = (int) (position % capacity);
+        int first = (int) Math.min(length, capacity - index);
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_SIZE + index);
+        view.put(source, offset, first);
+        if (first < length) {
+            view.position(HEADER_SIZE);
+            view.put(source, offset + first, length - first);
+        }
+    }
+
+    private void read(long position, byte[] target) {
+        int index = (int) (position % capacity);
+        int first = (int) Math.min(target.length, capacity - index);
+        ByteBuffer view = buffer.duplicate();
+        view.position(HEADER_SIZE + index);
+        view.get(target, 0, first);
+        if (first < target.length) {
+            view.position(HEADER_SIZE);
+            view.get(target, first, target.length - first);
+        }
+    }
+}
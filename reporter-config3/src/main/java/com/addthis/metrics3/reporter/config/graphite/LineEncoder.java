@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Builds a plaintext protocol payload ({@code path value timestamp\n} per
+ * value) in one reused byte buffer.  Paths and values are sanitized the way
+ * {@link com.codahale.metrics.graphite.Graphite} does it, with runs of
+ * whitespace replaced by a single {@code -}, and doubles are written with two
+ * decimals like {@link com.codahale.metrics.graphite.GraphiteReporter} does.
+ * <p>
+ * Not thread safe.
+ */
+public class LineEncoder implements CarbonEncoder {
+
+    private static final Pattern WHITESPACE = Pattern.compile("[\\s]+");
+
+    private byte[] buffer;
+    private int size;
+
+    public LineEncoder(int initialCapacity) {
+        this.buffer = new byte[Math.max(64, initialCapacity)];
+    }
+
+    @Override
+    public void reset() {
+        size = 0;
+    }
+
+    @Override
+    public void add(String path, long value, long timestamp) {
+        writeSanitized(path);
+        writeByte(' ');
+        writeLong(value);
+        writeByte(' ');
+        writeLong(timestamp);
+        writeByte('\n');
+    }
+
+    @Override
+    public void add(String path, double value, long timestamp) {
+        writeSanitized(path);
+        writeByte(' ');
+        writeDouble(value);
+        writeByte(' ');
+        writeLong(timestamp);
+        writeByte('\n');
+    }
+
+    @Override
+    public void add(byte[] path, long value, long timestamp) {
+        writeBytes(path);
+        writeByte(' ');
+        writeLong(value);
+        writeByte(' ');
+        writeLong(timestamp);
+        writeByte('\n');
+    }
+
+    @Override
+    public void add(byte[] path, double value, long timestamp) {
+        writeBytes(path);
+        writeByte(' ');
+        writeDouble(value);
+        writeByte(' ');
+        writeLong(timestamp);
+        writeByte('\n');
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @return the path as the encoders write it, without copying paths that
+     *         need no change
+     */
+    public static String sanitize(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (isWhitespace(value.charAt(i))) {
+                return WHITESPACE.matcher(value).replaceAll("-");
+            }
+        }
+        return value;
+    }
+
+    private void writeSanitized(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        int start = size;
+        boolean whitespace = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                size = start;
+                writeNonAscii(value);
+                return;
+            }
+            if (isWhitespace(c)) {
+                if (!whitespace) {
+                    buffer[size++] = '-';
+                }
+                whitespace = true;
+            } else {
+                buffer[size++] = (byte) c;
+                whitespace = false;
+            }
+        }
+    }
+
+    private void writeNonAscii(String value) {
+        byte[] bytes = WHITESPACE.matcher(value).replaceAll("-").getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    /**
+     * Whole values, which most counts and sizes are, skip the formatter.
+     */
+    private void writeDouble(double value) {
+        long whole = (long) value;
+        if (whole == value && Math.abs(whole) < 1L << 53 && (whole != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            writeLong(whole);
+            ensureCapacity(3);
+            buffer[size++] = '.';
+            buffer[size++] = '0';
+            buffer[size++] = '0';
+        } else {
+            writeSanitized(String.format(Locale.US, "%2.2f", value));
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                writeNonAscii(Long.toString(value));
+                return;
+            }
+            writeByte('-');
+            value = -value;
+        }
+        ensureCapacity(19);
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int position = size + digits;
+        do {
+            buffer[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        size += digits;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
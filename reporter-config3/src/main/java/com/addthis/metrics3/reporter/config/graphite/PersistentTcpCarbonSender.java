@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one connection open across sends, writing through a buffer.
+ * <p>
+ * A failed write closes the connection and the next connect is held back,
+ * starting at one second and doubling up to a minute while failures persist;
+ * sends during the back off fail straight away.  Carbon never writes to its
+ * clients, so before each send the connection is checked for an end of
+ * stream, which catches a receiver that closed it since the last tick
+ * instead of losing the first write to it.
+ * <p>
+ * Socket writes have no timeout of their own, so a receiver that stops
+ * reading would block a write until the kernel gives up.  A write that has
+ * not finished within the timeout has its connection closed instead, and
+ * fails like any other.
+ */
+public class PersistentTcpCarbonSender implements CarbonSender {
+
+    static final long MIN_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ScheduledThreadPoolExecutor WRITE_DEADLINES = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "graphite-write-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        WRITE_DEADLINES.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private Socket socket;
+    private OutputStream out;
+    private int failures;
+    private long nextConnectNanos;
+
+    public PersistentTcpCarbonSender(String host, int port, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void send(byte[] payload, int offset, int length) throws IOException {
+        long wait = nextConnectNanos - System.nanoTime();
+        if (socket == null && failures > 0 && wait > 0) {
+            throw new IOException("not reconnecting to " + getAddress() + " for another "
+                                  + TimeUnit.NANOSECONDS.toMillis(wait) + " ms");
+        }
+        try {
+            if (socket != null && isClosedByPeer()) {
+                disconnect();
+            }
+            if (socket == null) {
+                connect();
+            }
+            write(payload, offset, length);
+            failures = 0;
+        } catch (IOException e) {
+            disconnect();
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(failures, 16));
+            nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+            failures++;
+            throw e;
+        }
+    }
+
+    private void write(byte[] payload, int offset, int length) throws IOException {
+        if (timeoutMillis <= 0) {
+            out.write(payload, offset, length);
+            out.flush();
+            return;
+        }
+        final Socket writing = socket;
+        Future<?> deadline = WRITE_DEADLINES.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writing.close();
+                } catch (IOException e) {
+                    // the blocked write fails either way
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            out.write(payload, offset, length);
+            out.flush();
+        } catch (IOException e) {
+            if (deadline.isDone()) {
+                SocketTimeoutException timeout = new SocketTimeoutException(
+                        "write to " + getAddress() + " did not finish within " + timeoutMillis + " ms");
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    private void connect() throws IOException {
+        Socket connecting = new Socket();
+        try {
+            connecting.connect(new InetSocketAddress(host, port), timeoutMillis);
+            connecting.setKeepAlive(true);
+            connecting.setSoTimeout(1);
+            out = new BufferedOutputStream(connecting.getOutputStream(), BUFFER_SIZE);
+            socket = connecting;
+        } catch (IOException e) {
+            connecting.close();
+            throw e;
+        }
+    }
+
+    private boolean isClosedByPeer() {
+        try {
+            InputStream in = socket.getInputStream();
+            return in.read() < 0;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already failed
+            }
+        }
+        socket = null;
+        out = null;
+    }
+
+    @Override
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            try {
+                out.flush();
+            } finally {
+                disconnect();
+            }
+        }
+    }
+}
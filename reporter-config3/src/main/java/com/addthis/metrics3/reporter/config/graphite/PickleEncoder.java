@@ -0,0 +1,206 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.util.Arrays;
+
+/**
+ * Builds pickle receiver frames in one reused byte buffer.  Each frame is a
+ * 4 byte big-endian length followed by a protocol 2 pickle of a list of
+ * {@code (path, (timestamp, value))} tuples, holding at most
+ * {@code batchSize} values.
+ * <p>
+ * Only the opcodes needed for that one shape are written: paths as
+ * {@code BINUNICODE}, timestamps as {@code BININT} and values as
+ * {@code BINFLOAT}, which any carbon running Python 2.3 or later can load.
+ * Paths are sanitized like {@link LineEncoder} does it.
+ * <p>
+ * Not thread safe.
+ */
+public class PickleEncoder implements CarbonEncoder {
+
+    private static final byte PROTO = (byte) 0x80;
+    private static final byte EMPTY_LIST = ']';
+    private static final byte MARK = '(';
+    private static final byte BINUNICODE = 'X';
+    private static final byte BININT = 'J';
+    private static final byte LONG1 = (byte) 0x8a;
+    private static final byte BINFLOAT = 'G';
+    private static final byte TUPLE2 = (byte) 0x86;
+    private static final byte APPENDS = 'e';
+    private static final byte STOP = '.';
+
+    private final int batchSize;
+    private byte[] buffer;
+    private int size;
+    private int frameStart;
+    private int frameValues;
+
+    public PickleEncoder(int initialCapacity, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.buffer = new byte[Math.max(64, initialCapacity)];
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void reset() {
+        size = 0;
+        frameValues = 0;
+    }
+
+    @Override
+    public void add(String path, long value, long timestamp) {
+        add(path, (double) value, timestamp);
+    }
+
+    @Override
+    public void add(String path, double value, long timestamp) {
+        if (frameValues == 0) {
+            startFrame();
+        }
+        String sanitized = LineEncoder.sanitize(path);
+        // worst case of three bytes per char, plus the rest of the tuple
+        ensureCapacity(5 + 3 * sanitized.length() + 21);
+        writePath(sanitized);
+        writeValue(value, timestamp);
+    }
+
+    @Override
+    public void add(byte[] path, long value, long timestamp) {
+        add(path, (double) value, timestamp);
+    }
+
+    @Override
+    public void add(byte[] path, double value, long timestamp) {
+        if (frameValues == 0) {
+            startFrame();
+        }
+        ensureCapacity(5 + path.length + 21);
+        buffer[size++] = BINUNICODE;
+        writeIntLE(size, path.length);
+        size += 4;
+        System.arraycopy(path, 0, buffer, size, path.length);
+        size += path.length;
+        writeValue(value, timestamp);
+    }
+
+    private void writeValue(double value, long timestamp) {
+        writeTimestamp(timestamp);
+        buffer[size++] = BINFLOAT;
+        long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (bits >>> shift);
+        }
+        buffer[size++] = TUPLE2;
+        buffer[size++] = TUPLE2;
+        if (++frameValues == batchSize) {
+            endFrame();
+        }
+    }
+
+    /**
+     * Closes the frame in progress, if any.
+     */
+    @Override
+    public byte[] toByteArray() {
+        if (frameValues > 0) {
+            endFrame();
+        }
+        return Arrays.copyOf(buffer, size);
+    }
+
+    private void startFrame() {
+        ensureCapacity(8);
+        frameStart = size;
+        size += 4;
+        buffer[size++] = PROTO;
+        buffer[size++] = 2;
+        buffer[size++] = EMPTY_LIST;
+        buffer[size++] = MARK;
+    }
+
+    private void endFrame() {
+        ensureCapacity(2);
+        buffer[size++] = APPENDS;
+        buffer[size++] = STOP;
+        int length = size - frameStart - 4;
+        buffer[frameStart] = (byte) (length >>> 24);
+        buffer[frameStart + 1] = (byte) (length >>> 16);
+        buffer[frameStart + 2] = (byte) (length >>> 8);
+        buffer[frameStart + 3] = (byte) length;
+        frameValues = 0;
+    }
+
+    private void writePath(String path) {
+        int length = path.length();
+        buffer[size++] = BINUNICODE;
+        int lengthAt = size;
+        size += 4;
+        int start = size;
+        for (int i = 0; i < length; i++) {
+            char c = path.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xc0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                       && Character.isLowSurrogate(path.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, path.charAt(++i));
+                buffer[size++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer[size++] = '?';
+            } else {
+                buffer[size++] = (byte) (0xe0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        writeIntLE(lengthAt, size - start);
+    }
+
+    private void writeTimestamp(long timestamp) {
+        if (timestamp >= Integer.MIN_VALUE && timestamp <= Integer.MAX_VALUE) {
+            buffer[size++] = BININT;
+            writeIntLE(size, (int) timestamp);
+            size += 4;
+        } else {
+            buffer[size++] = LONG1;
+            buffer[size++] = 8;
+            for (int shift = 0; shift < 64; shift += 8) {
+                buffer[size++] = (byte) (timestamp >>> shift);
+            }
+        }
+    }
+
+    private void writeIntLE(int at, int value) {
+        buffer[at] = (byte) value;
+        buffer[at + 1] = (byte) (value >>> 8);
+        buffer[at + 2] = (byte) (value >>> 16);
+        buffer[at + 3] = (byte) (value >>> 24);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the payloads another sender failed to deliver in a
+ * {@link CarbonSpool} and replays them once it delivers again.
+ * <p>
+ * Every send delivers the live payload first.  Only when that succeeds is the
+ * backlog replayed, oldest first and paced to {@code replayBytesPerSecond},
+ * so catching up after an outage neither delays current values nor floods
+ * the receiver.  Replay only happens on sends, so the budget saved up between
+ * two sends may grow to the rate times {@code replayIntervalMillis}, the time
+ * between reports.  Payloads carry their own timestamps, so replayed values
+ * land where they belong.
+ */
+public class SpoolingCarbonSender implements CarbonSender {
+
+    private static final Logger log = LoggerFactory.getLogger(SpoolingCarbonSender.class);
+
+    private final CarbonSender delegate;
+    private final CarbonSpool spool;
+    private final Queue<byte[]> deferred = new ConcurrentLinkedQueue<>();
+    private final long replayBytesPerSecond;
+    private final long maxReplayBudget;
+    private long replayBudget;
+    private long lastReplayNanos;
+
+    public SpoolingCarbonSender(CarbonSender delegate, CarbonSpool spool, long replayBytesPerSecond) {
+        this(delegate, spool, replayBytesPerSecond, 1000);
+    }
+
+    /**
+     * @param replayIntervalMillis how often the sender is used, usually the
+     *                             reporting period
+     */
+    public SpoolingCarbonSender(CarbonSender delegate, CarbonSpool spool, long replayBytesPerSecond,
+                                long replayIntervalMillis) {
+        this.delegate = delegate;
+        this.spool = spool;
+        this.replayBytesPerSecond = replayBytesPerSecond;
+        this.maxReplayBudget = replayBytesPerSecond * Math.max(1000, replayIntervalMillis) / 1000;
+        this.lastReplayNanos = nanoTime();
+    }
+
+    @Override
+    public void send(byte[] payload, int offset, int length) throws IOException {
+        try {
+            delegate.send(payload, offset, length);
+        } catch (IOException | RuntimeException e) {
+            spool(payload, offset, length);
+            spoolDeferred();
+            throw e;
+        }
+        spoolDeferred();
+        replay();
+    }
+
+    /**
+     * Keeps a payload the caller could not send because a send is still in
+     * progress.  It is spooled once that send, or else the next one, returns,
+     * and is replayed like any other.  The spool itself is only touched by
+     * the sending thread.
+     */
+    public void defer(byte[] payload) {
+        deferred.add(payload);
+    }
+
+    private void spoolDeferred() {
+        byte[] payload;
+        while ((payload = deferred.poll()) != null) {
+            spool(payload, 0, payload.length);
+        }
+    }
+
+    private void spool(byte[] payload, int offset, int length) {
+        if (!spool.append(payload, offset, length)) {
+            log.warn("Report of {} bytes to {} is larger than its spool, dropped", length, getAddress());
+        }
+    }
+
+    private void replay() {
+        long now = nanoTime();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(now - lastReplayNanos);
+        lastReplayNanos = now;
+        replayBudget = Math.min(maxReplayBudget, replayBudget + elapsed * replayBytesPerSecond / 1000);
+        if (spool.isEmpty()) {
+            return;
+        }
+        // a payload larger than the budget still goes out, and is paid back on later ticks
+        while (replayBudget > 0 && !spool.isEmpty()) {
+            byte[] backlog = spool.peek();
+            if (backlog == null) {
+                // the spool dropped a damaged record and is empty now
+                return;
+            }
+            try {
+                delegate.send(backlog, 0, backlog.length);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to replay spooled reports to {}, {} bytes left", getAddress(), spool.size(), e);
+                return;
+            }
+            spool.remove();
+            replayBudget -= backlog.length;
+        }
+        if (spool.isEmpty()) {
+            log.info("Replayed the spooled reports to {}", getAddress());
+        }
+    }
+
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public String getAddress() {
+        return delegate.getAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        spoolDeferred();
+        try {
+            delegate.close();
+        } finally {
+            spool.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Opens a connection per payload and closes it once written, like
+ * {@link com.codahale.metrics.graphite.Graphite} does per report.  The host
+ * name is resolved on every connect so DNS changes are picked up.
+ */
+public class TcpCarbonSender implements CarbonSender {
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+
+    public TcpCarbonSender(String host, int port, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public void send(byte[] payload, int offset, int length) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            OutputStream out = socket.getOutputStream();
+            out.write(payload, offset, length);
+            out.flush();
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public void close() {
+        // nothing is kept open between sends
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+/**
+ * Sends plaintext lines in datagrams of up to {@code maxPacketSize} bytes,
+ * splitting only between lines, so carbon's UDP listener never sees a
+ * partial line.  A single line longer than a packet is sent on its own.
+ * Packets are sliced straight out of the payload without copying.
+ */
+public class UdpCarbonSender implements CarbonSender {
+
+    /**
+     * Fits a 1500 byte Ethernet MTU with room for IP options and tunnels.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private final String host;
+    private final int port;
+    private final int maxPacketSize;
+    private DatagramSocket socket;
+
+    public UdpCarbonSender(String host, int port, int maxPacketSize) {
+        this.host = host;
+        this.port = port;
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    @Override
+    public void send(byte[] payload, int offset, int length) throws IOException {
+        if (socket == null) {
+            socket = new DatagramSocket();
+        }
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("cannot resolve " + getAddress());
+        }
+        DatagramPacket packet = new DatagramPacket(payload, offset, 0, address);
+        int end = offset + length;
+        int start = offset;
+        while (start < end) {
+            int packetEnd = packetEnd(payload, start, end);
+            packet.setData(payload, start, packetEnd - start);
+            socket.send(packet);
+            start = packetEnd;
+        }
+    }
+
+    /**
+     * @return the end of the last whole line that fits a packet starting at
+     *         {@code start}, or of the first line if none fits
+     */
+    private int packetEnd(byte[] payload, int start, int end) {
+        int limit = Math.min(end, start + maxPacketSize);
+        if (limit == end) {
+            return end;
+        }
+        for (int i = limit - 1; i >= start; i--) {
+            if (payload[i] == '\n') {
+                return i + 1;
+            }
+        }
+        for (int i = limit; i < end; i++) {
+            if (payload[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    @Override
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public void close() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.metrics.reporter.config.HistogramBucketConfig;
+import com.addthis.metrics.reporter.config.PatternMatcher;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * Bucket boundaries for exposing histograms and timers as Prometheus
+ * histograms instead of summaries.
+ * <p>
+ * Bucket counts come from one pass over the snapshot's values.  Reservoirs
+ * only keep a sample, so the share of values at or below each bound is scaled
+ * to the metric's total count.  The sum is estimated as mean times count.
+ * Both estimates can drop between scrapes, for instance as a decaying
+ * reservoir forgets old values, so each metric's {@link Exposed} holds them
+ * at what was already exposed.
+ */
+public class HistogramBuckets {
+
+    /** The Prometheus client's default buckets, in seconds. */
+    static final double[] DEFAULT_BOUNDARIES = {.005, .01, .025, .05, .1, .25, .5, 1, 2.5, 5, 10};
+
+    private final List<PatternMatcher> matchers = new ArrayList<>();
+    private final List<double[]> boundaries = new ArrayList<>();
+
+    public HistogramBuckets(List<HistogramBucketConfig> configs) {
+        for (HistogramBucketConfig config : configs == null ? Collections.<HistogramBucketConfig>emptyList() : configs) {
+            double[] bounds = new double[config.getBoundaries().size()];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = config.getBoundaries().get(i);
+            }
+            Arrays.sort(bounds);
+            // a repeated bound would repeat its le label
+            int distinct = 0;
+            for (double bound : bounds) {
+                if (distinct == 0 || bound != bounds[distinct - 1]) {
+                    bounds[distinct++] = bound;
+                }
+            }
+            matchers.add(PatternMatcher.compile(config.getPattern()));
+            boundaries.add(Arrays.copyOf(bounds, distinct));
+        }
+    }
+
+    /**
+     * @return the boundaries of the first pattern matching the registry name,
+     * or the Prometheus defaults
+     */
+    public double[] getBoundaries(String name) {
+        for (int i = 0; i < matchers.size(); i++) {
+            if (matchers.get(i).matches(name)) {
+                return boundaries.get(i);
+            }
+        }
+        return DEFAULT_BOUNDARIES;
+    }
+
+    /**
+     * @return for each bound, the estimated number of recorded values at or
+     * below it once scaled by {@code factor}
+     */
+    static long[] cumulativeCounts(Snapshot snapshot, double factor, double[] bounds, long count) {
+        long[] counts = new long[bounds.length];
+        long[] values = snapshot.getValues();
+        if (values.length == 0) {
+            return counts;
+        }
+        for (long value : values) {
+            int index = Arrays.binarySearch(bounds, value * factor);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (index < counts.length) {
+                counts[index]++;
+            }
+        }
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            counts[i] = values.length == count ? cumulative : Math.round((double) cumulative * count / values.length);
+        }
+        return counts;
+    }
+
+    static String formatBound(double bound) {
+        return Double.toString(bound);
+    }
+
+    /**
+     * The bucket counts and sum last exposed for one metric.  Prometheus
+     * treats them as counters, so an estimate below them would look like a
+     * reset to {@code rate()}; it is held at the exposed value instead.  A
+     * count below the last one is a real reset and starts over.
+     */
+    static class Exposed {
+        private long[] counts;
+        private double sum;
+        private long count;
+
+        /**
+         * Raises {@code counts} to what was last exposed and remembers them.
+         *
+         * @return the sum to expose
+         */
+        synchronized double hold(long[] counts, double sum, long count) {
+            if (this.counts == null || this.counts.length != counts.length || count < this.count) {
+                this.counts = counts.clone();
+            } else {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = Math.max(counts[i], this.counts[i]);
+                    this.counts[i] = counts[i];
+                }
+                sum = Math.max(sum, this.sum);
+            }
+            this.sum = sum;
+            this.count = count;
+            return sum;
+        }
+    }
+}
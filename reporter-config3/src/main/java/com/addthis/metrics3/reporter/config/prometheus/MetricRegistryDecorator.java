@@ -16,16 +16,22 @@ package com.addthis.metrics3.reporter.config.prometheus;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
+import com.addthis.metrics3.reporter.config.MetricNameCache;
+
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
@@ -40,36 +46,137 @@ public class MetricRegistryDecorator extends Collector {
 
     private static final Logger logger = LoggerFactory.getLogger(MetricRegistryDecorator.class);
 
+    private static final String[] QUANTILES = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+    private static final List<String> NO_LABELS = Collections.emptyList();
+
     private final MetricRegistry registry;
-    private final List<String> labelNames = new ArrayList<>();
-    private final List<String> labelValues = new ArrayList<>();
+    private final MetricFilter filter;
+    private final List<String> labelNames;
+    private final List<String> labelValues;
+    private final List<String> quantileLabelNames;
+    private final List<List<String>> quantileLabelValues;
+    private final MetricNameCache<Metadata> metadata = new MetricNameCache<>();
+    /** keyed by bounds array identity; there are only a few distinct arrays */
+    private final ConcurrentMap<double[], List<List<String>>> bucketLabelValues = new ConcurrentHashMap<>();
+    private final List<String> bucketLabelNames;
+    private volatile HistogramBuckets histogramBuckets;
+    private volatile long minScrapeIntervalNanos;
+    private List<MetricFamilySamples> cachedSamples;
+    private long cachedAtNanos;
+
+    /**
+     * Everything about a metric's family that does not change between
+     * scrapes.  Dropped when the metric is removed from the registry.
+     */
+    private static class Metadata {
+        final Class<?> type;
+        final String name;
+        final String totalName;
+        final String countName;
+        final String bucketName;
+        final String sumName;
+        final String help;
+        /** bucket bounds when exported as a histogram, else null */
+        final double[] bounds;
+        final HistogramBuckets.Exposed exposed;
+
+        Metadata(String registryName, Metric metric, HistogramBuckets buckets) {
+            this.type = metric.getClass();
+            this.name = sanitizeMetricName(registryName);
+            this.totalName = name + "_total";
+            this.countName = name + "_count";
+            this.bucketName = name + "_bucket";
+            this.sumName = name + "_sum";
+            this.help = getHelpMessage(name, metric);
+            this.bounds = buckets != null && (metric instanceof Histogram || metric instanceof Timer)
+                    ? buckets.getBoundaries(registryName) : null;
+            this.exposed = bounds != null ? new HistogramBuckets.Exposed() : null;
+        }
+    }
 
     public MetricRegistryDecorator(MetricRegistry registry, String job, Map<String, String> labels) {
+        this(registry, job, labels, MetricFilter.ALL);
+    }
+
+    /**
+     * @param filter metrics it rejects are skipped before their value or
+     *               snapshot is read
+     */
+    public MetricRegistryDecorator(MetricRegistry registry, String job, Map<String, String> labels,
+                                   MetricFilter filter) {
         this.registry = registry;
+        this.filter = filter;
 
-        labelNames.add("job");
-        labelValues.add(job);
+        List<String> names = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        names.add("job");
+        values.add(job);
 
         for (Map.Entry<String, String> entry : labels.entrySet()) {
-            labelNames.add(entry.getKey());
-            labelValues.add(entry.getValue());
+            names.add(entry.getKey());
+            values.add(entry.getValue());
         }
+        this.labelNames = Collections.unmodifiableList(names);
+        this.labelValues = Collections.unmodifiableList(values);
+        this.quantileLabelNames = Collections.unmodifiableList(addToEnd(labelNames, "quantile"));
+        List<List<String>> quantileValues = new ArrayList<>(QUANTILES.length);
+        for (String quantile : QUANTILES) {
+            quantileValues.add(Collections.unmodifiableList(addToEnd(labelValues, quantile)));
+        }
+        this.quantileLabelValues = Collections.unmodifiableList(quantileValues);
+        this.bucketLabelNames = Collections.unmodifiableList(addToEnd(labelNames, "le"));
+
+        registry.addListener(metadata);
+    }
+
+    /**
+     * Stops following the registry.  Only needed when the decorator is
+     * discarded before the registry.
+     */
+    public void close() {
+        registry.removeListener(metadata);
+    }
+
+    /**
+     * Exports histograms and timers as cumulative buckets with these bounds
+     * instead of summary quantiles.  Null restores summaries.
+     */
+    public void setHistogramBuckets(HistogramBuckets histogramBuckets) {
+        this.histogramBuckets = histogramBuckets;
+        metadata.clear();
     }
 
     private static String getHelpMessage(String metricName, Metric metric) {
         return String.format("Generated from dropwizard metric import (metric=%s, type=%s)", metricName, metric.getClass().getName());
     }
 
+    private Metadata getMetadata(String registryName, Metric metric) {
+        Metadata cached = metadata.get(registryName);
+        if (cached == null || cached.type != metric.getClass()) {
+            cached = new Metadata(registryName, metric, histogramBuckets);
+            metadata.put(registryName, cached);
+        }
+        return cached;
+    }
+
     public MetricFamilySamples fromCounter(String name, Counter counter) {
-        Sample sample = new Sample(name, labelNames, labelValues, new Long(counter.getCount()).doubleValue());
-        return new MetricFamilySamples(name, Type.GAUGE, getHelpMessage(name, counter), Arrays.asList(sample));
+        return fromCounter(new Metadata(name, counter, histogramBuckets), counter);
+    }
+
+    private MetricFamilySamples fromCounter(Metadata metadata, Counter counter) {
+        Sample sample = new Sample(metadata.name, labelNames, labelValues, (double) counter.getCount());
+        return new MetricFamilySamples(metadata.name, Type.GAUGE, metadata.help, Arrays.asList(sample));
     }
 
     public MetricFamilySamples fromGauge(String name, Gauge gauge) {
+        return fromGauge(new Metadata(name, gauge, histogramBuckets), gauge);
+    }
+
+    private MetricFamilySamples fromGauge(Metadata metadata, Gauge gauge) {
         Object obj = gauge.getValue();
 
-        List<String> labelNames = new ArrayList<>(this.labelNames);
-        List<String> labelValues = new ArrayList<>(this.labelValues);
+        List<String> labelNames = this.labelNames;
+        List<String> labelValues = this.labelValues;
 
         double value;
         if (obj instanceof Number) {
@@ -79,86 +186,163 @@ public class MetricRegistryDecorator extends Collector {
         } else if (obj instanceof String) {
             // Support string gauge constants by setting gauge_value label to the value
             // with a number value of 1.
-            labelNames.add("gauge_value");
-            labelValues.add((String) obj);
+            labelNames = addToEnd(labelNames, "gauge_value");
+            labelValues = addToEnd(labelValues, (String) obj);
             value = 1;
         } else {
             return null;
         }
 
-        Sample sample = new Sample(name, labelNames, labelValues, value);
-        return new MetricFamilySamples(name, Type.GAUGE, getHelpMessage(name, gauge), Arrays.asList(sample));
+        Sample sample = new Sample(metadata.name, labelNames, labelValues, value);
+        return new MetricFamilySamples(metadata.name, Type.GAUGE, metadata.help, Arrays.asList(sample));
     }
 
     public MetricFamilySamples fromHistogram(String name, Histogram histogram) {
-        return fromSnapshotAndCount(name, histogram.getSnapshot(), histogram.getCount(), 1.0, getHelpMessage(name, histogram));
+        return fromHistogram(new Metadata(name, histogram, histogramBuckets), histogram);
+    }
+
+    private MetricFamilySamples fromHistogram(Metadata metadata, Histogram histogram) {
+        if (metadata.bounds != null) {
+            return fromSnapshotBuckets(metadata, histogram.getSnapshot(), histogram.getCount(), 1.0);
+        }
+        return fromSnapshotAndCount(metadata.name, metadata.countName, histogram.getSnapshot(), histogram.getCount(),
+                1.0, metadata.help);
     }
 
     public MetricFamilySamples fromTimer(String name, Timer timer) {
-        return fromSnapshotAndCount(name, timer.getSnapshot(), timer.getCount(), 1.0D / TimeUnit.SECONDS.toNanos(1L), getHelpMessage(name, timer));
+        return fromTimer(new Metadata(name, timer, histogramBuckets), timer);
+    }
+
+    private MetricFamilySamples fromTimer(Metadata metadata, Timer timer) {
+        if (metadata.bounds != null) {
+            return fromSnapshotBuckets(metadata, timer.getSnapshot(), timer.getCount(),
+                    1.0D / TimeUnit.SECONDS.toNanos(1L));
+        }
+        return fromSnapshotAndCount(metadata.name, metadata.countName, timer.getSnapshot(), timer.getCount(),
+                1.0D / TimeUnit.SECONDS.toNanos(1L), metadata.help);
     }
 
     public MetricFamilySamples fromMeter(String name, Meter meter) {
-        List<Sample> samples = Arrays.asList(new Sample(name + "_total", labelNames, labelValues, meter.getCount()));
-        return new MetricFamilySamples(name + "_total", Type.COUNTER, getHelpMessage(name, meter), samples);
+        return fromMeter(new Metadata(name, meter, histogramBuckets), meter);
+    }
+
+    private MetricFamilySamples fromMeter(Metadata metadata, Meter meter) {
+        List<Sample> samples = Arrays.asList(new Sample(metadata.totalName, labelNames, labelValues, meter.getCount()));
+        return new MetricFamilySamples(metadata.totalName, Type.COUNTER, metadata.help, samples);
     }
 
     public MetricFamilySamples fromSnapshotAndCount(String name, Snapshot snapshot, long count, double factor, String helpMessage) {
-        List<String> labelNames = addToEnd(this.labelNames, "quantile");
+        return fromSnapshotAndCount(name, name + "_count", snapshot, count, factor, helpMessage);
+    }
 
+    private MetricFamilySamples fromSnapshotAndCount(String name, String countName, Snapshot snapshot, long count,
+                                                     double factor, String helpMessage) {
         List<Sample> samples = Arrays.asList(
-                new Sample(name, labelNames, addToEnd(labelValues, "0.5"), snapshot.getMedian() * factor),
-                new Sample(name, labelNames, addToEnd(labelValues, "0.75"), snapshot.get75thPercentile() * factor),
-                new Sample(name, labelNames, addToEnd(labelValues, "0.95"), snapshot.get95thPercentile() * factor),
-                new Sample(name, labelNames, addToEnd(labelValues, "0.98"), snapshot.get98thPercentile() * factor),
-                new Sample(name, labelNames, addToEnd(labelValues, "0.99"), snapshot.get99thPercentile() * factor),
-                new Sample(name, labelNames, addToEnd(labelValues, "0.999"), snapshot.get999thPercentile() * factor),
-                new Sample(name + "_count", new ArrayList<String>(), new ArrayList<String>(), count)
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(0), snapshot.getMedian() * factor),
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(1), snapshot.get75thPercentile() * factor),
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(2), snapshot.get95thPercentile() * factor),
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(3), snapshot.get98thPercentile() * factor),
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(4), snapshot.get99thPercentile() * factor),
+                new Sample(name, quantileLabelNames, quantileLabelValues.get(5), snapshot.get999thPercentile() * factor),
+                new Sample(countName, NO_LABELS, NO_LABELS, count)
         );
 
         return new MetricFamilySamples(name, Type.SUMMARY, helpMessage, samples);
     }
 
+    private MetricFamilySamples fromSnapshotBuckets(Metadata metadata, Snapshot snapshot, long count, double factor) {
+        double[] bounds = metadata.bounds;
+        List<List<String>> leValues = getBucketLabelValues(bounds);
+        long[] cumulative = HistogramBuckets.cumulativeCounts(snapshot, factor, bounds, count);
+        double sum = metadata.exposed.hold(cumulative, snapshot.getMean() * factor * count, count);
+        List<Sample> samples = new ArrayList<>(bounds.length + 3);
+        for (int i = 0; i < bounds.length; i++) {
+            samples.add(new Sample(metadata.bucketName, bucketLabelNames, leValues.get(i), cumulative[i]));
+        }
+        samples.add(new Sample(metadata.bucketName, bucketLabelNames, leValues.get(bounds.length), count));
+        samples.add(new Sample(metadata.sumName, labelNames, labelValues, sum));
+        samples.add(new Sample(metadata.countName, labelNames, labelValues, count));
+        return new MetricFamilySamples(metadata.name, Type.HISTOGRAM, metadata.help, samples);
+    }
+
+    private List<List<String>> getBucketLabelValues(double[] bounds) {
+        List<List<String>> values = bucketLabelValues.get(bounds);
+        if (values == null) {
+            List<List<String>> built = new ArrayList<>(bounds.length + 1);
+            for (double bound : bounds) {
+                built.add(Collections.unmodifiableList(addToEnd(labelValues, HistogramBuckets.formatBound(bound))));
+            }
+            built.add(Collections.unmodifiableList(addToEnd(labelValues, "+Inf")));
+            values = Collections.unmodifiableList(built);
+            bucketLabelValues.put(bounds, values);
+        }
+        return values;
+    }
+
     private static List<String> addToEnd(List<String> list, String value) {
-        List<String> copy = new ArrayList<>(list);
+        List<String> copy = new ArrayList<>(list.size() + 1);
+        copy.addAll(list);
         copy.add(value);
         return copy;
     }
 
+    /**
+     * Collections within {@code interval} of the previous one return its
+     * samples.  0 disables caching.
+     */
+    public void setMinScrapeInterval(long interval, TimeUnit unit) {
+        this.minScrapeIntervalNanos = unit.toNanos(interval);
+    }
+
     @Override
     public List<MetricFamilySamples> collect() {
+        if (minScrapeIntervalNanos <= 0) {
+            return collectFromRegistry();
+        }
+        // holding the lock while collecting keeps concurrent scrapes down to one collection
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (cachedSamples == null || now - cachedAtNanos >= minScrapeIntervalNanos) {
+                cachedSamples = Collections.unmodifiableList(collectFromRegistry());
+                cachedAtNanos = now;
+            }
+            return cachedSamples;
+        }
+    }
+
+    private List<MetricFamilySamples> collectFromRegistry() {
         List<MetricFamilySamples> metricFamilySamples = new ArrayList<>();
 
-        for (SortedMap.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
-            MetricFamilySamples sample = fromGauge(sanitizeMetricName(entry.getKey()), entry.getValue());
+        for (SortedMap.Entry<String, Gauge> entry : registry.getGauges(filter).entrySet()) {
+            MetricFamilySamples sample = fromGauge(getMetadata(entry.getKey(), entry.getValue()), entry.getValue());
             if (sample != null) {
                 metricFamilySamples.add(sample);
             }
         }
 
-        for (SortedMap.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
-            MetricFamilySamples sample = fromCounter(sanitizeMetricName(entry.getKey()), entry.getValue());
+        for (SortedMap.Entry<String, Counter> entry : registry.getCounters(filter).entrySet()) {
+            MetricFamilySamples sample = fromCounter(getMetadata(entry.getKey(), entry.getValue()), entry.getValue());
             if (sample != null) {
                 metricFamilySamples.add(sample);
             }
         }
 
-        for (SortedMap.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
-            MetricFamilySamples sample = fromHistogram(sanitizeMetricName(entry.getKey()), entry.getValue());
+        for (SortedMap.Entry<String, Histogram> entry : registry.getHistograms(filter).entrySet()) {
+            MetricFamilySamples sample = fromHistogram(getMetadata(entry.getKey(), entry.getValue()), entry.getValue());
             if (sample != null) {
                 metricFamilySamples.add(sample);
             }
         }
 
-        for (SortedMap.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
-            MetricFamilySamples sample = fromTimer(sanitizeMetricName(entry.getKey()), entry.getValue());
+        for (SortedMap.Entry<String, Timer> entry : registry.getTimers(filter).entrySet()) {
+            MetricFamilySamples sample = fromTimer(getMetadata(entry.getKey(), entry.getValue()), entry.getValue());
             if (sample != null) {
                 metricFamilySamples.add(sample);
             }
         }
 
-        for (SortedMap.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
-            MetricFamilySamples sample = fromMeter(sanitizeMetricName(entry.getKey()), entry.getValue());
+        for (SortedMap.Entry<String, Meter> entry : registry.getMeters(filter).entrySet()) {
+            MetricFamilySamples sample = fromMeter(getMetadata(entry.getKey(), entry.getValue()), entry.getValue());
             if (sample != null) {
                 metricFamilySamples.add(sample);
             }
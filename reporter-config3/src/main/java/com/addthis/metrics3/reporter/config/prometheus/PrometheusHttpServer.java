@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Scrape endpoint on the JDK's built-in {@link HttpServer}, for processes
+ * without a servlet container.
+ * <p>
+ * Requests are served by a small fixed pool with a short queue.  When both
+ * are full the accepting thread serves the scrape itself, which stops it from
+ * accepting more connections until it is done.  Responses are gzipped when the
+ * scraper accepts it and sent chunked, so connections stay alive between
+ * scrapes.
+ */
+public class PrometheusHttpServer {
+
+    private static final Logger log = LoggerFactory.getLogger(PrometheusHttpServer.class);
+
+    private static final int QUEUE_SIZE = 16;
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor executor;
+
+    public PrometheusHttpServer(InetSocketAddress address, int threads, PrometheusTextWriter writer)
+            throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new DaemonThreadFactory(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        HttpHandler handler = new MetricsHandler(writer);
+        server.createContext("/", handler);
+        server.createContext("/metrics", handler);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Prometheus scrape endpoint listening on {}", server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    static boolean acceptsGzip(HttpExchange exchange) {
+        return acceptsGzip(exchange.getRequestHeaders().get("Accept-Encoding"));
+    }
+
+    /**
+     * @param values the {@code Accept-Encoding} headers, or null
+     * @return whether they list gzip with a weight above 0
+     */
+    static boolean acceptsGzip(List<String> values) {
+        if (values == null) {
+            return false;
+        }
+        for (String value : values) {
+            for (String encoding : value.split(",")) {
+                String[] parameters = encoding.split(";");
+                if (!parameters[0].trim().equalsIgnoreCase("gzip")) {
+                    continue;
+                }
+                for (int i = 1; i < parameters.length; i++) {
+                    String[] parameter = parameters[i].split("=", 2);
+                    if (parameter.length == 2 && parameter[0].trim().equalsIgnoreCase("q")) {
+                        try {
+                            return Double.parseDouble(parameter[1].trim()) > 0;
+                        } catch (NumberFormatException e) {
+                            // a weight we cannot read is no consent
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class MetricsHandler implements HttpHandler {
+
+        private final PrometheusTextWriter writer;
+
+        MetricsHandler(PrometheusTextWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                drain(exchange.getRequestBody());
+                String method = exchange.getRequestMethod();
+                if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", PrometheusTextWriter.CONTENT_TYPE);
+                if ("HEAD".equals(method)) {
+                    exchange.sendResponseHeaders(200, -1);
+                    return;
+                }
+                boolean gzip = acceptsGzip(exchange);
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                // length 0 means chunked, which keeps the connection reusable
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                if (gzip) {
+                    writer.writeGzip(out);
+                } else {
+                    writer.write(out);
+                }
+                out.flush();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to serve Prometheus scrape from {}", exchange.getRemoteAddress(), e);
+                throw e;
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void drain(InputStream in) throws IOException {
+            byte[] scratch = new byte[256];
+            while (in.read(scratch) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "prometheus-http-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
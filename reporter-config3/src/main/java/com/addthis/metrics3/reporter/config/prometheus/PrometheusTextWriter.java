@@ -0,0 +1,524 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.addthis.metrics3.reporter.config.MetricNameCache;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import io.prometheus.client.Collector;
+
+/**
+ * Writes a registry in the Prometheus text exposition format 0.0.4 straight to
+ * an {@link OutputStream}.
+ * <p>
+ * Produces the same families as {@link MetricRegistryDecorator} without
+ * building any {@code MetricFamilySamples}: the HELP/TYPE lines and the
+ * {@code name{labels}} prefix of every series are encoded once per metric and
+ * cached until the metric is removed from the registry, so a scrape only
+ * formats numbers into a reusable per-thread buffer.
+ * <p>
+ * With a minimum scrape interval the encoded response is cached: scrapes
+ * within the interval share it, and at most one collection runs at a time
+ * while concurrent scrapes wait for its result.
+ */
+public class PrometheusTextWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String[] QUANTILES = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+    private static final double NANOS_TO_SECONDS = 1.0D / TimeUnit.SECONDS.toNanos(1L);
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    private final MetricRegistry registry;
+    private final MetricFilter filter;
+    /** {@code job="..",k="v"} without braces */
+    private final String labels;
+    private final MetricNameCache<Family> families = new MetricNameCache<>();
+    private volatile HistogramBuckets histogramBuckets;
+    private final Object scrapeLock = new Object();
+    private volatile long minScrapeIntervalNanos;
+    private byte[] cachedBody;
+    private byte[] cachedGzipBody;
+    private long cachedAtNanos;
+    private final ThreadLocal<TextBuffer> buffers = new ThreadLocal<TextBuffer>() {
+        @Override
+        protected TextBuffer initialValue() {
+            return new TextBuffer(FLUSH_THRESHOLD * 2);
+        }
+    };
+
+    public PrometheusTextWriter(MetricRegistry registry, String job, Map<String, String> labels, MetricFilter filter) {
+        this.registry = registry;
+        this.filter = filter;
+
+        StringBuilder builder = new StringBuilder();
+        builder.append("job=\"").append(escapeLabelValue(job)).append('"');
+        for (Map.Entry<String, String> entry : labels.entrySet()) {
+            builder.append(',').append(entry.getKey()).append("=\"").append(escapeLabelValue(entry.getValue()))
+                   .append('"');
+        }
+        this.labels = builder.toString();
+
+        registry.addListener(families);
+    }
+
+    /**
+     * Stops following the registry.  Only needed when the writer is
+     * discarded before the registry.
+     */
+    public void close() {
+        registry.removeListener(families);
+    }
+
+    /**
+     * Writes histograms and timers as cumulative buckets with these bounds
+     * instead of summary quantiles.  Null restores summaries.
+     */
+    public void setHistogramBuckets(HistogramBuckets histogramBuckets) {
+        this.histogramBuckets = histogramBuckets;
+        families.clear();
+    }
+
+    /**
+     * Scrapes within {@code interval} of the previous collection are served
+     * the previous response.  0 disables caching.
+     */
+    public void setMinScrapeInterval(long interval, TimeUnit unit) {
+        this.minScrapeIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Writes every metric accepted by the filter.  The stream is neither
+     * flushed nor closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (minScrapeIntervalNanos > 0) {
+            out.write(getCachedBody(false));
+        } else {
+            render(out);
+        }
+    }
+
+    /**
+     * Like {@link #write(OutputStream)}, gzip compressed.
+     */
+    public void writeGzip(OutputStream out) throws IOException {
+        if (minScrapeIntervalNanos > 0) {
+            out.write(getCachedBody(true));
+        } else {
+            // closing the gzip stream frees its native deflater; out stays open
+            try (GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(out), FLUSH_THRESHOLD)) {
+                render(gzip);
+            }
+        }
+    }
+
+    private byte[] getCachedBody(boolean gzip) throws IOException {
+        synchronized (scrapeLock) {
+            long now = System.nanoTime();
+            if (cachedBody == null || now - cachedAtNanos >= minScrapeIntervalNanos) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                        cachedBody == null ? FLUSH_THRESHOLD : cachedBody.length + FLUSH_THRESHOLD);
+                render(bytes);
+                cachedBody = bytes.toByteArray();
+                cachedGzipBody = null;
+                cachedAtNanos = now;
+            }
+            if (!gzip) {
+                return cachedBody;
+            }
+            if (cachedGzipBody == null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(cachedBody.length / 4 + 64);
+                try (GZIPOutputStream gzipOut = new GZIPOutputStream(bytes, FLUSH_THRESHOLD)) {
+                    gzipOut.write(cachedBody);
+                }
+                cachedGzipBody = bytes.toByteArray();
+            }
+            return cachedGzipBody;
+        }
+    }
+
+    /**
+     * Writes only the families whose text changed since the last call with
+     * the same tracker, or every family when {@code full} is set.  Either way
+     * the tracker remembers what was written.  Families of removed metrics
+     * are never written as deletions; they are simply absent from the next
+     * full write.
+     */
+    public void writeChanged(OutputStream out, ChangeTracker tracker, boolean full) throws IOException {
+        synchronized (tracker) {
+            if (full) {
+                tracker.hashes.clear();
+            }
+            render(out, tracker, full);
+        }
+    }
+
+    private void render(OutputStream out) throws IOException {
+        render(out, null, true);
+    }
+
+    private void render(OutputStream out, ChangeTracker tracker, boolean full) throws IOException {
+        TextBuffer buffer = buffers.get();
+        buffer.reset();
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+            String name = entry.getKey();
+            Metric metric = entry.getValue();
+            if (!filter.matches(name, metric)) {
+                continue;
+            }
+            Family family = getFamily(name, metric);
+            int start = buffer.size();
+            if (metric instanceof Gauge) {
+                writeGauge(buffer, family, ((Gauge) metric).getValue());
+            } else if (metric instanceof Counter) {
+                buffer.write(family.header);
+                buffer.write(family.sample);
+                buffer.writeLong(((Counter) metric).getCount());
+                buffer.write('\n');
+            } else if (metric instanceof Meter) {
+                buffer.write(family.header);
+                buffer.write(family.sample);
+                buffer.writeLong(((Meter) metric).getCount());
+                buffer.write('\n');
+            } else if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                writeSnapshot(buffer, family, timer.getSnapshot(), timer.getCount(), NANOS_TO_SECONDS);
+            } else if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                writeSnapshot(buffer, family, histogram.getSnapshot(), histogram.getCount(), 1.0);
+            }
+            if (tracker != null && buffer.size() > start) {
+                long hash = buffer.hash(start);
+                Long previous = tracker.hashes.put(name, hash);
+                if (!full && previous != null && previous == hash) {
+                    buffer.truncate(start);
+                }
+            }
+            if (buffer.size() >= FLUSH_THRESHOLD) {
+                buffer.writeTo(out);
+                buffer.reset();
+            }
+        }
+        buffer.writeTo(out);
+        buffer.release();
+    }
+
+    private void writeGauge(TextBuffer buffer, Family family, Object value) {
+        if (value instanceof Number) {
+            buffer.write(family.header);
+            buffer.write(family.sample);
+            buffer.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            buffer.write(family.header);
+            buffer.write(family.sample);
+            buffer.write(((Boolean) value) ? '1' : '0');
+        } else if (value instanceof String) {
+            // same gauge_value label convention as MetricRegistryDecorator
+            buffer.write(family.header);
+            buffer.write(family.name);
+            buffer.write('{');
+            buffer.writeUtf8(labels);
+            buffer.writeUtf8(",gauge_value=\"");
+            buffer.writeUtf8(escapeLabelValue((String) value));
+            buffer.writeUtf8("\"} 1");
+        } else {
+            return;
+        }
+        buffer.write('\n');
+    }
+
+    private static void writeSnapshot(TextBuffer buffer, Family family, Snapshot snapshot, long count, double factor) {
+        if (family.bounds != null) {
+            writeBuckets(buffer, family, snapshot, count, factor);
+            return;
+        }
+        buffer.write(family.header);
+        writeSample(buffer, family.quantileSamples[0], snapshot.getMedian() * factor);
+        writeSample(buffer, family.quantileSamples[1], snapshot.get75thPercentile() * factor);
+        writeSample(buffer, family.quantileSamples[2], snapshot.get95thPercentile() * factor);
+        writeSample(buffer, family.quantileSamples[3], snapshot.get98thPercentile() * factor);
+        writeSample(buffer, family.quantileSamples[4], snapshot.get99thPercentile() * factor);
+        writeSample(buffer, family.quantileSamples[5], snapshot.get999thPercentile() * factor);
+        buffer.write(family.countSample);
+        buffer.writeLong(count);
+        buffer.write('\n');
+    }
+
+    private static void writeBuckets(TextBuffer buffer, Family family, Snapshot snapshot, long count, double factor) {
+        buffer.write(family.header);
+        long[] cumulative = HistogramBuckets.cumulativeCounts(snapshot, factor, family.bounds, count);
+        double sum = family.exposed.hold(cumulative, snapshot.getMean() * factor * count, count);
+        for (int i = 0; i < cumulative.length; i++) {
+            buffer.write(family.bucketSamples[i]);
+            buffer.writeLong(cumulative[i]);
+            buffer.write('\n');
+        }
+        buffer.write(family.bucketSamples[cumulative.length]);
+        buffer.writeLong(count);
+        buffer.write('\n');
+        writeSample(buffer, family.sumSample, sum);
+        buffer.write(family.countSample);
+        buffer.writeLong(count);
+        buffer.write('\n');
+    }
+
+    private static void writeSample(TextBuffer buffer, byte[] prefix, double value) {
+        buffer.write(prefix);
+        buffer.writeDouble(value);
+        buffer.write('\n');
+    }
+
+    private Family getFamily(String registryName, Metric metric) {
+        Family family = families.get(registryName);
+        if (family == null || family.type != metric.getClass()) {
+            family = new Family(registryName, metric, labels, histogramBuckets);
+            families.put(registryName, family);
+        }
+        return family;
+    }
+
+    static String escapeLabelValue(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String escapeHelp(String help) {
+        if (help.indexOf('\\') < 0 && help.indexOf('\n') < 0) {
+            return help;
+        }
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * Lets a wrapping stream be closed without closing the caller's stream.
+     */
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    /**
+     * What {@link #writeChanged} last wrote, as a 64-bit FNV-1a hash of each
+     * family's text.
+     */
+    public static class ChangeTracker {
+        private final Map<String, Long> hashes = new HashMap<>();
+    }
+
+    /**
+     * Pre-encoded text of one metric's family.
+     */
+    private static class Family {
+        final Class<?> type;
+        final byte[] name;
+        final byte[] header;
+        final byte[] sample;
+        final byte[][] quantileSamples;
+        final byte[] countSample;
+        /** bucket bounds when written as a histogram, else null */
+        final double[] bounds;
+        final byte[][] bucketSamples;
+        final byte[] sumSample;
+        final HistogramBuckets.Exposed exposed;
+
+        Family(String registryName, Metric metric, String labels, HistogramBuckets buckets) {
+            this.type = metric.getClass();
+            String name = Collector.sanitizeMetricName(registryName);
+            String help = escapeHelp(String.format("Generated from dropwizard metric import (metric=%s, type=%s)",
+                                                   name, type.getName()));
+            String familyName = name;
+            String promType;
+            boolean sampling = metric instanceof Timer || metric instanceof Histogram;
+            this.bounds = sampling && buckets != null ? buckets.getBoundaries(registryName) : null;
+            this.exposed = bounds != null ? new HistogramBuckets.Exposed() : null;
+            if (bounds != null) {
+                promType = "histogram";
+            } else if (sampling) {
+                promType = "summary";
+            } else if (metric instanceof Meter) {
+                familyName = name + "_total";
+                promType = "counter";
+            } else {
+                promType = "gauge";
+            }
+            this.name = familyName.getBytes(UTF_8);
+            this.header = ("# HELP " + familyName + " " + help + "\n# TYPE " + familyName + " " + promType + "\n")
+                    .getBytes(UTF_8);
+            this.sample = (familyName + "{" + labels + "} ").getBytes(UTF_8);
+            this.quantileSamples = new byte[QUANTILES.length][];
+            for (int i = 0; i < QUANTILES.length; i++) {
+                quantileSamples[i] = (name + "{" + labels + ",quantile=\"" + QUANTILES[i] + "\"} ").getBytes(UTF_8);
+            }
+            if (bounds == null) {
+                this.countSample = (name + "_count ").getBytes(UTF_8);
+                this.bucketSamples = null;
+                this.sumSample = null;
+            } else {
+                this.countSample = (name + "_count{" + labels + "} ").getBytes(UTF_8);
+                this.sumSample = (name + "_sum{" + labels + "} ").getBytes(UTF_8);
+                this.bucketSamples = new byte[bounds.length + 1][];
+                for (int i = 0; i <= bounds.length; i++) {
+                    String le = i < bounds.length ? HistogramBuckets.formatBound(bounds[i]) : "+Inf";
+                    bucketSamples[i] = (name + "_bucket{" + labels + ",le=\"" + le + "\"} ").getBytes(UTF_8);
+                }
+            }
+        }
+    }
+
+    /**
+     * Growable byte buffer that formats numbers without going through String
+     * where it can.
+     */
+    static class TextBuffer {
+        private final int initialCapacity;
+        private byte[] bytes;
+        private int size;
+
+        TextBuffer(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            this.bytes = new byte[initialCapacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        long hash(int from) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = from; i < size; i++) {
+                hash ^= bytes[i] & 0xff;
+                hash *= 0x100000001b3L;
+            }
+            return hash;
+        }
+
+        /**
+         * Drops a buffer that grew on an unusually large gauge string so one
+         * scrape does not pin it forever.
+         */
+        void release() {
+            size = 0;
+            if (bytes.length > initialCapacity * 4) {
+                bytes = new byte[initialCapacity];
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        void writeUtf8(String s) {
+            write(s.getBytes(UTF_8));
+        }
+
+        void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                writeUtf8(Long.toString(value));
+                return;
+            }
+            ensure(20);
+            if (value < 0) {
+                bytes[size++] = '-';
+                value = -value;
+            }
+            int start = size;
+            do {
+                bytes[size++] = (byte) ('0' + (value % 10));
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                byte tmp = bytes[i];
+                bytes[i] = bytes[j];
+                bytes[j] = tmp;
+            }
+        }
+
+        void writeDouble(double value) {
+            if (Double.isNaN(value)) {
+                writeUtf8("NaN");
+            } else if (value == Double.POSITIVE_INFINITY) {
+                writeUtf8("+Inf");
+            } else if (value == Double.NEGATIVE_INFINITY) {
+                writeUtf8("-Inf");
+            } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+                // whole values (counts, most gauges) skip Double.toString
+                writeLong((long) value);
+            } else {
+                writeUtf8(Double.toString(value));
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/**
+ * Sends already encoded text format bodies to one Pushgateway.
+ * <p>
+ * {@code PUT} replaces every metric of the job's group, {@code POST} only
+ * replaces the families present in the body.
+ */
+public class PushGatewayClient {
+
+    private final String address;
+    private final URL url;
+    private final int timeoutMillis;
+
+    public PushGatewayClient(String address, String job, int timeoutMillis) throws IOException {
+        this.address = address;
+        this.url = new URL("http://" + address + "/metrics/job/" + URLEncoder.encode(job, "UTF-8"));
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void put(byte[] body) throws IOException {
+        send("PUT", body);
+    }
+
+    public void post(byte[] body) throws IOException {
+        send("POST", body);
+    }
+
+    private void send(String method, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Content-Type", PrometheusTextWriter.CONTENT_TYPE);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int response = connection.getResponseCode();
+            if (response / 100 != 2) {
+                throw new IOException("Response code from " + url + " was " + response);
+            }
+            // draining the body lets the connection be reused
+            InputStream in = connection.getInputStream();
+            try {
+                byte[] scratch = new byte[256];
+                while (in.read(scratch) >= 0) {
+                    // discard
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.statsd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Packs newline separated StatsD lines ({@code path:value|type}) into
+ * datagrams of at most {@code maxPacketSize} bytes and sends every datagram
+ * to each host.
+ * <p>
+ * Lines are written straight into one reused direct buffer, and a datagram is
+ * only sent once the next line would not fit, so a tick costs one send per
+ * packet and host instead of one per value.  The channel is non-blocking: a
+ * datagram the socket has no room for is dropped and counted, as UDP would
+ * drop it anyway.  A line longer than a packet is dropped as well.
+ * <p>
+ * Not thread safe.
+ */
+public class StatsDPacketSender implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsDPacketSender.class);
+
+    /**
+     * Fits a 1500 byte Ethernet MTU with room for IP options and tunnels.
+     */
+    public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+    private final List<String> hosts;
+    private final List<Integer> ports;
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+    private final DatagramChannel channel;
+    private final ByteBuffer packet;
+    private final byte[] scratch = new byte[32];
+    private int packetsSent;
+    private int packetsDropped;
+    private int linesDropped;
+
+    public StatsDPacketSender(List<String> hosts, List<Integer> ports, int maxPacketSize) throws IOException {
+        this.hosts = new ArrayList<>(hosts);
+        this.ports = new ArrayList<>(ports);
+        this.packet = ByteBuffer.allocateDirect(maxPacketSize);
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+    }
+
+    /**
+     * Starts a tick, resolving the hosts again so DNS changes are picked up.
+     */
+    public void begin() {
+        packet.clear();
+        packetsSent = 0;
+        packetsDropped = 0;
+        linesDropped = 0;
+        addresses.clear();
+        for (int i = 0; i < hosts.size(); i++) {
+            InetSocketAddress address = new InetSocketAddress(hosts.get(i), ports.get(i));
+            if (address.isUnresolved()) {
+                log.warn("Cannot resolve StatsD host {}, skipping it this tick", hosts.get(i));
+            } else {
+                addresses.add(address);
+            }
+        }
+    }
+
+    /**
+     * @param path already sanitized and encoded as UTF-8
+     * @param type the StatsD type, such as {@code 'g'} or {@code 'c'}
+     */
+    public void add(byte[] path, long value, char type) {
+        int length = writeLong(value);
+        addLine(path, scratch, length, type);
+    }
+
+    /**
+     * Writes the value with two decimals, like
+     * {@link com.readytalk.metrics.StatsDReporter} does.
+     */
+    public void add(byte[] path, double value, char type) {
+        long whole = (long) value;
+        if (whole == value && Math.abs(whole) < 1L << 53 && (whole != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            int length = writeLong(whole);
+            scratch[length++] = '.';
+            scratch[length++] = '0';
+            scratch[length++] = '0';
+            addLine(path, scratch, length, type);
+        } else {
+            byte[] formatted = String.format(Locale.US, "%2.2f", value).getBytes(StandardCharsets.US_ASCII);
+            addLine(path, formatted, formatted.length, type);
+        }
+    }
+
+    private void addLine(byte[] path, byte[] value, int valueLength, char type) {
+        int lineLength = path.length + 1 + valueLength + 2;
+        if (lineLength > packet.capacity()) {
+            linesDropped++;
+            return;
+        }
+        int separator = packet.position() == 0 ? 0 : 1;
+        if (packet.remaining() < separator + lineLength) {
+            flush();
+            separator = 0;
+        }
+        if (separator > 0) {
+            packet.put((byte) '\n');
+        }
+        packet.put(path);
+        packet.put((byte) ':');
+        packet.put(value, 0, valueLength);
+        packet.put((byte) '|');
+        packet.put((byte) type);
+    }
+
+    /**
+     * Sends the packet in progress, if any.
+     */
+    public void flush() {
+        if (packet.position() == 0) {
+            return;
+        }
+        packet.flip();
+        for (InetSocketAddress address : addresses) {
+            try {
+                if (channel.send(packet, address) == 0) {
+                    packetsDropped++;
+                } else {
+                    packetsSent++;
+                }
+            } catch (IOException e) {
+                packetsDropped++;
+                log.debug("Failed to send StatsD packet to {}", address, e);
+            }
+            packet.rewind();
+        }
+        packet.clear();
+    }
+
+    /**
+     * Sends the last packet and logs what was dropped this tick.
+     */
+    public void end() {
+        flush();
+        if (packetsDropped > 0 || linesDropped > 0) {
+            log.warn("Dropped {} StatsD packets and {} lines longer than a packet this tick",
+                     packetsDropped, linesDropped);
+        }
+    }
+
+    public int getPacketsSent() {
+        return packetsSent;
+    }
+
+    public int getPacketsDropped() {
+        return packetsDropped;
+    }
+
+    private int writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            byte[] digits = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(digits, 0, scratch, 0, digits.length);
+            return digits.length;
+        }
+        int length = 0;
+        if (value < 0) {
+            scratch[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int position = length + digits;
+        do {
+            scratch[--position] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        return length + digits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.zabbix;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a Zabbix sender request, header included, straight into one reused
+ * byte buffer.
+ * <p>
+ * A frame is {@code "ZBXD\1"}, the little-endian 8 byte length of the body,
+ * and a JSON body of the form
+ * {@code {"request":"sender data","data":[{"host":..,"key":..,"value":..,"clock":..},..],"clock":..}}.
+ * Item keys are passed in already escaped and encoded by {@link #escape},
+ * typically cached per metric, and numbers are written digit by digit, so
+ * encoding a tick allocates nothing once the buffer has grown to size.
+ * Values are written as {@code String.valueOf} would write them.
+ * <p>
+ * Not thread safe.
+ */
+public class ZabbixFrameEncoder {
+
+    static final int HEADER_LENGTH = 13;
+
+    private static final byte[] REQUEST = ascii("{\"request\":\"sender data\",\"data\":[");
+    private static final byte[] HOST = ascii("{\"host\":\"");
+    private static final byte[] KEY = ascii("\",\"key\":\"");
+    private static final byte[] VALUE = ascii("\",\"value\":\"");
+    private static final byte[] CLOCK = ascii("\",\"clock\":");
+    private static final byte[] END = ascii("],\"clock\":");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final byte[] host;
+    private final byte[] clock = new byte[20];
+    private final StringBuilder scratch = new StringBuilder(32);
+    private byte[] buffer;
+    private int position;
+    private int clockLength;
+    private int items;
+
+    public ZabbixFrameEncoder(String host, int initialCapacity) {
+        this.host = escape(host).getBytes(StandardCharsets.UTF_8);
+        this.buffer = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    /**
+     * @return {@code value} as a JSON string body, without the quotes
+     */
+    public static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                if (escaped == null) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                escaped.append('\\');
+                if (c == '"' || c == '\\') {
+                    escaped.append(c);
+                } else {
+                    escaped.append("u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xf]);
+                }
+            } else if (escaped != null) {
+                escaped.append(c);
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    /**
+     * Starts a frame whose items are all stamped with {@code clock}, in
+     * seconds since the epoch.
+     */
+    public void begin(long clock) {
+        position = 0;
+        items = 0;
+        buffer[position++] = 'Z';
+        buffer[position++] = 'B';
+        buffer[position++] = 'X';
+        buffer[position++] = 'D';
+        buffer[position++] = 1;
+        position = HEADER_LENGTH;
+        write(REQUEST);
+        clockLength = 0;
+        long remaining = clock;
+        do {
+            this.clock[clockLength++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        for (int i = 0, j = clockLength - 1; i < j; i++, j--) {
+            byte swap = this.clock[i];
+            this.clock[i] = this.clock[j];
+            this.clock[j] = swap;
+        }
+    }
+
+    public void add(byte[] key, long value) {
+        startItem(key);
+        writeLong(value);
+        endItem();
+    }
+
+    public void add(byte[] key, double value) {
+        startItem(key);
+        long whole = (long) value;
+        // Double.toString switches to scientific notation from 10^7 on
+        if (whole == value && Math.abs(whole) < 10000000 && (whole != 0 || Double.doubleToRawLongBits(value) == 0)) {
+            writeLong(whole);
+            ensureCapacity(2);
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+        } else {
+            scratch.setLength(0);
+            writeChars(scratch.append(value));
+        }
+        endItem();
+    }
+
+    /**
+     * Adds a gauge value; integral and floating point numbers are written
+     * without going through {@code toString}.
+     */
+    public void add(byte[] key, Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            add(key, ((Number) value).longValue());
+        } else if (value instanceof Double) {
+            add(key, ((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            startItem(key);
+            scratch.setLength(0);
+            writeChars(scratch.append(((Float) value).floatValue()));
+            endItem();
+        } else {
+            startItem(key);
+            writeChars(String.valueOf(value));
+            endItem();
+        }
+    }
+
+    /**
+     * Closes the frame and fills in its length.
+     *
+     * @return the length of the frame
+     */
+    public int end() {
+        ensureCapacity(END.length + clockLength + 1);
+        write(END);
+        System.arraycopy(clock, 0, buffer, position, clockLength);
+        position += clockLength;
+        buffer[position++] = '}';
+        long length = position - HEADER_LENGTH;
+        for (int i = 0; i < 8; i++) {
+            buffer[5 + i] = (byte) (length >>> (8 * i));
+        }
+        return position;
+    }
+
+    /**
+     * @return the frame, valid up to the length returned by {@link #end()}
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getItemCount() {
+        return items;
+    }
+
+    private void startItem(byte[] key) {
+        ensureCapacity(1 + HOST.length + host.length + KEY.length + key.length + VALUE.length);
+        if (items > 0) {
+            buffer[position++] = ',';
+        }
+        write(HOST);
+        write(host);
+        write(KEY);
+        write(key);
+        write(VALUE);
+    }
+
+    private void endItem() {
+        ensureCapacity(CLOCK.length + clockLength + 1);
+        write(CLOCK);
+        System.arraycopy(clock, 0, buffer, position, clockLength);
+        position += clockLength;
+        buffer[position++] = '}';
+        items++;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(20);
+        if (value == Long.MIN_VALUE) {
+            writeChars(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+    }
+
+    /**
+     * Writes {@code chars} JSON escaped and UTF-8 encoded.
+     */
+    private void writeChars(CharSequence chars) {
+        ensureCapacity(chars.length() * 6);
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+            } else if (c < 0x20) {
+                buffer[position++] = '\\';
+                buffer[position++] = 'u';
+                buffer[position++] = '0';
+                buffer[position++] = '0';
+                buffer[position++] = HEX[c >> 4];
+                buffer[position++] = HEX[c & 0xf];
+            } else if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars.length()
+                       && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                buffer[position++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+    }
+
+    private void write(byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (position + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + extra)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            buffer = grown;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
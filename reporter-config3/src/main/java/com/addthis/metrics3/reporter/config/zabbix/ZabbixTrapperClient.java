@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.zabbix;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends frames written by {@link ZabbixFrameEncoder} to a Zabbix trapper,
+ * one connection per request as {@code zabbix_sender} does, and reads back
+ * the trapper's answer.
+ * <p>
+ * Thread safe; concurrent requests use their own connections.
+ */
+public class ZabbixTrapperClient {
+
+    private static final int MAX_RESPONSE_LENGTH = 65536;
+    private static final Pattern SUCCESS = Pattern.compile("\"response\"\\s*:\\s*\"success\"");
+    private static final Pattern INFO = Pattern.compile(
+            "processed:\\s*(\\d+);\\s*failed:\\s*(\\d+);\\s*total:\\s*(\\d+);\\s*seconds spent:\\s*([0-9.]+)");
+
+    private final String host;
+    private final int port;
+    private final int connectTimeout;
+    private final int socketTimeout;
+
+    public ZabbixTrapperClient(String host, int port, int connectTimeout, int socketTimeout) {
+        this.host = host;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+    }
+
+    public Response send(byte[] frame, int length) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(socketTimeout);
+            socket.connect(new InetSocketAddress(host, port), connectTimeout);
+            OutputStream out = socket.getOutputStream();
+            out.write(frame, 0, length);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] header = new byte[ZabbixFrameEncoder.HEADER_LENGTH];
+            try {
+                in.readFully(header);
+            } catch (EOFException e) {
+                throw new IOException("Zabbix trapper " + getAddress() + " closed the connection without answering");
+            }
+            if (header[0] != 'Z' || header[1] != 'B' || header[2] != 'X' || header[3] != 'D') {
+                throw new IOException("Unexpected answer from Zabbix trapper " + getAddress());
+            }
+            long bodyLength = 0;
+            for (int i = 7; i >= 0; i--) {
+                bodyLength = bodyLength << 8 | (header[5 + i] & 0xff);
+            }
+            if (bodyLength < 0 || bodyLength > MAX_RESPONSE_LENGTH) {
+                throw new IOException("Answer of " + bodyLength + " bytes from Zabbix trapper " + getAddress());
+            }
+            byte[] body = new byte[(int) bodyLength];
+            in.readFully(body);
+            return Response.parse(new String(body, StandardCharsets.UTF_8));
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getAddress() {
+        return host + ':' + port;
+    }
+
+    /**
+     * The trapper's answer to one request.
+     */
+    public static class Response {
+        private final boolean success;
+        private final int processed;
+        private final int failed;
+        private final int total;
+        private final float spentSeconds;
+
+        Response(boolean success, int processed, int failed, int total, float spentSeconds) {
+            this.success = success;
+            this.processed = processed;
+            this.failed = failed;
+            this.total = total;
+            this.spentSeconds = spentSeconds;
+        }
+
+        static Response parse(String body) {
+            boolean success = SUCCESS.matcher(body).find();
+            Matcher info = INFO.matcher(body);
+            if (!info.find()) {
+                return new Response(false, 0, 0, 0, 0);
+            }
+            return new Response(success, Integer.parseInt(info.group(1)), Integer.parseInt(info.group(2)),
+                                Integer.parseInt(info.group(3)), Float.parseFloat(info.group(4)));
+        }
+
+        /**
+         * @return whether the trapper accepted the request and processed
+         *         every item in it
+         */
+        public boolean success() {
+            return success && failed == 0 && processed == total;
+        }
+
+        /**
+         * @return whether the trapper accepted the request, even if it could
+         *         not process some items, such as ones that are not set up as
+         *         trapper items
+         */
+        public boolean isAccepted() {
+            return success;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public float getSpentSeconds() {
+            return spentSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "processed: " + processed + "; failed: " + failed + "; total: " + total
+                   + "; seconds spent: " + spentSeconds;
+        }
+    }
+}
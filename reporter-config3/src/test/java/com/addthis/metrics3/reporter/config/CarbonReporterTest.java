@@ -0,0 +1,230 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.metrics3.reporter.config.graphite.CarbonHashRing;
+import com.addthis.metrics3.reporter.config.graphite.CarbonSender;
+import com.addthis.metrics3.reporter.config.graphite.TcpCarbonSender;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CarbonReporterTest {
+
+    private static final Clock CLOCK = new Clock() {
+        @Override
+        public long getTick() {
+            return 0;
+        }
+
+        @Override
+        public long getTime() {
+            return 1500000000123L;
+        }
+    };
+
+    private final List<FakeCarbon> carbons = new ArrayList<>();
+
+    /**
+     * Fake carbon plaintext receiver recording one entry per connection.
+     */
+    private static class FakeCarbon implements Runnable {
+        final ServerSocket socket;
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        FakeCarbon() throws IOException {
+            this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "fake-carbon");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try (Socket connection = socket.accept()) {
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    InputStream in = connection.getInputStream();
+                    byte[] buffer = new byte[1024];
+                    int read;
+                    while ((read = in.read(buffer)) >= 0) {
+                        body.write(buffer, 0, read);
+                    }
+                    received.add(body.toString("UTF-8"));
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+    }
+
+    private FakeCarbon carbon() throws IOException {
+        FakeCarbon carbon = new FakeCarbon();
+        carbons.add(carbon);
+        return carbon;
+    }
+
+    @After
+    public void stopCarbons() throws IOException {
+        for (FakeCarbon carbon : carbons) {
+            carbon.socket.close();
+        }
+    }
+
+    private static CarbonReporter reporter(MetricRegistry registry, List<CarbonSender> senders) {
+        return new CarbonReporter(senders, registry, "prefix", MetricFilter.ALL, TimeUnit.SECONDS,
+                                  TimeUnit.MILLISECONDS, CLOCK, 2000);
+    }
+
+    @Test
+    public void sameLinesToEveryHost() throws Exception {
+        FakeCarbon first = carbon();
+        FakeCarbon second = carbon();
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc(3);
+        Histogram sizes = registry.histogram("sizes");
+        sizes.update(5);
+
+        CarbonReporter reporter = reporter(registry, Arrays.<CarbonSender>asList(
+                new TcpCarbonSender("127.0.0.1", first.port(), 2000),
+                new TcpCarbonSender("127.0.0.1", second.port(), 2000)));
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        String body = first.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(body);
+        assertEquals(body, second.received.poll(5, TimeUnit.SECONDS));
+        assertTrue(body.startsWith("prefix.requests.count 3 1500000000\n"));
+        assertTrue(body.contains("prefix.sizes.count 1 1500000000\n"));
+        assertTrue(body.contains("prefix.sizes.max 5 1500000000\n"));
+        assertTrue(body.contains("prefix.sizes.p999 5.00 1500000000\n"));
+    }
+
+    @Test
+    public void unreachableHostDoesNotStopOthers() throws Exception {
+        FakeCarbon live = carbon();
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int deadPort = closed.getLocalPort();
+        closed.close();
+
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests with spaces").inc();
+
+        CarbonReporter reporter = reporter(registry, Arrays.<CarbonSender>asList(
+                new TcpCarbonSender("127.0.0.1", deadPort, 2000),
+                new TcpCarbonSender("127.0.0.1", live.port(), 2000)));
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        assertEquals("prefix.requests-with-spaces.count 1 1500000000\n", live.received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shardSendsEachPathToOneHost() throws Exception {
+        FakeCarbon first = carbon();
+        FakeCarbon second = carbon();
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 50; i++) {
+            registry.counter("requests" + i).inc(i);
+        }
+        List<String> servers = Arrays.asList("127.0.0.1", "127.0.0.1");
+        List<String> instances = Arrays.asList("a", "b");
+
+        CarbonReporter reporter = new CarbonReporter(Arrays.<CarbonSender>asList(
+                new TcpCarbonSender("127.0.0.1", first.port(), 2000),
+                new TcpCarbonSender("127.0.0.1", second.port(), 2000)),
+                new CarbonHashRing(servers, instances), registry, "prefix", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS, CLOCK, 2000);
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        CarbonHashRing ring = new CarbonHashRing(servers, instances);
+        String[] bodies = {first.received.poll(5, TimeUnit.SECONDS), second.received.poll(5, TimeUnit.SECONDS)};
+        int lines = 0;
+        for (int node = 0; node < bodies.length; node++) {
+            assertNotNull(bodies[node]);
+            for (String line : bodies[node].split("\n")) {
+                assertEquals(line, node, ring.getNode(line.substring(0, line.indexOf(' '))));
+                lines++;
+            }
+        }
+        assertEquals(50, lines);
+    }
+
+    @Test
+    public void emptyRegistrySendsNothing() throws Exception {
+        FakeCarbon carbon = carbon();
+        CarbonReporter reporter = reporter(new MetricRegistry(), Collections.<CarbonSender>singletonList(
+                new TcpCarbonSender("127.0.0.1", carbon.port(), 2000)));
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+        assertEquals(null, carbon.received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void reportAfterStopSendsNothing() throws Exception {
+        FakeCarbon carbon = carbon();
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+        CarbonReporter reporter = reporter(registry, Collections.<CarbonSender>singletonList(
+                new TcpCarbonSender("127.0.0.1", carbon.port(), 2000)));
+        reporter.stop();
+
+        reporter.report();
+        reporter.report();
+
+        assertEquals(null, carbon.received.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
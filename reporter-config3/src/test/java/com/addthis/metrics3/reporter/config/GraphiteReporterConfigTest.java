@@ -22,6 +22,7 @@ import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -63,4 +64,50 @@ public class GraphiteReporterConfigTest {
         reporter.setPrefix("testprefix");
         assertEquals("testprefix", reporter.getResolvedPrefix());
     }
+
+    @Test
+    public void unalignedHasNoInitialDelay() {
+        AbstractGraphiteReporterConfig reporter = new AbstractGraphiteReporterConfig();
+        reporter.setPeriod(60);
+        reporter.setTimeunit("SECONDS");
+        assertEquals(-1, reporter.getInitialDelayMillis(123456789L));
+    }
+
+    @Test
+    public void periodAlignment() {
+        AbstractGraphiteReporterConfig reporter = new AbstractGraphiteReporterConfig();
+        reporter.setPeriod(60);
+        reporter.setTimeunit("SECONDS");
+        reporter.setAlignment("period");
+        assertEquals(0, reporter.getPhaseMillis());
+        assertEquals(15000, reporter.getInitialDelayMillis(60000L * 1000 + 45000));
+        assertEquals(60000, reporter.getInitialDelayMillis(60000L * 1000));
+    }
+
+    @Test
+    public void jitteredAlignmentIsStablePerHost() {
+        InetAddress first = mock(InetAddress.class);
+        when(first.getHostName()).thenReturn("web-1.domain1.com");
+        InetAddress second = mock(InetAddress.class);
+        when(second.getHostName()).thenReturn("web-2.domain1.com");
+
+        AbstractGraphiteReporterConfig reporter = jittered(first);
+        long phase = reporter.getPhaseMillis();
+        assertTrue(phase >= 0 && phase < 60000);
+        assertEquals(phase, jittered(first).getPhaseMillis());
+        assertTrue(phase != jittered(second).getPhaseMillis());
+
+        long now = 60000L * 1000 + 1;
+        long delay = reporter.getInitialDelayMillis(now);
+        assertTrue(delay > 0 && delay <= 60000);
+        assertEquals(phase, (now + delay) % 60000);
+    }
+
+    private static AbstractGraphiteReporterConfig jittered(InetAddress localhost) {
+        AbstractGraphiteReporterConfig reporter = new AbstractGraphiteReporterConfig(localhost);
+        reporter.setPeriod(60);
+        reporter.setTimeunit("SECONDS");
+        reporter.setAlignment("jittered");
+        return reporter;
+    }
 }
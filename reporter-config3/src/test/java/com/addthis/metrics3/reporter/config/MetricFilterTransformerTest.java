@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.Arrays;
+
+import com.addthis.metrics.reporter.config.PredicateConfig;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricFilterTransformerTest {
+
+    @Test
+    public void verdictsAreCachedUntilRemoval() {
+        MetricRegistry registry = new MetricRegistry();
+        PredicateConfig predicate = new PredicateConfig("black", Arrays.asList(".*JMXONLY$"), true);
+        predicate.setCacheSize(10);
+        MetricFilter filter = MetricFilterTransformer.generateFilter(predicate, registry);
+        Counter counter = registry.counter("foo.JMXONLY");
+
+        assertFalse(filter.matches("foo.JMXONLY", counter));
+        // the cached verdict survives a predicate change...
+        predicate.setPatterns(Arrays.asList(".*OTHER$"));
+        assertFalse(filter.matches("foo.JMXONLY", counter));
+        // ...until the metric is removed from the registry
+        registry.remove("foo.JMXONLY");
+        assertTrue(filter.matches("foo.JMXONLY", counter));
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        MetricRegistry registry = new MetricRegistry();
+        PredicateConfig predicate = new PredicateConfig("white", Arrays.asList("a"));
+        predicate.setCacheSize(1);
+        MetricFilter filter = MetricFilterTransformer.generateFilter(predicate, registry);
+
+        assertTrue(filter.matches("x.a", null));
+        assertFalse(filter.matches("x.b", null));
+        predicate.setPatterns(Arrays.asList("b"));
+        // only the first name fit in the cache
+        assertTrue(filter.matches("x.a", null));
+        assertTrue(filter.matches("x.b", null));
+    }
+
+    @Test
+    public void noCacheWithoutSize() {
+        MetricRegistry registry = new MetricRegistry();
+        PredicateConfig predicate = new PredicateConfig("white", Arrays.asList("a"));
+        MetricFilter filter = MetricFilterTransformer.generateFilter(predicate, registry);
+
+        assertTrue(filter.matches("x.a", null));
+        predicate.setPatterns(Arrays.asList("b"));
+        assertFalse(filter.matches("x.a", null));
+    }
+}
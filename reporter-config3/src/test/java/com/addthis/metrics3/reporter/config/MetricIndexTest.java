@@ -0,0 +1,54 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.Arrays;
+
+import com.addthis.metrics.reporter.config.PredicateConfig;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricIndexTest {
+
+    @Test
+    public void indexFollowsRegistry() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("b.requests");
+        registry.counter("a.JMXONLY");
+        MetricIndex index = MetricIndex.forRegistry(registry, MetricFilterTransformer.generateFilter(
+                new PredicateConfig("black", Arrays.asList(".*JMXONLY$"), true)));
+
+        assertEquals(Arrays.asList("b.requests"), Arrays.asList(index.getCounters().keySet().toArray()));
+
+        registry.counter("a.requests");
+        registry.timer("c.latency");
+        registry.timer("c.JMXONLY");
+        assertEquals(Arrays.asList("a.requests", "b.requests"),
+                Arrays.asList(index.getCounters().keySet().toArray()));
+        assertEquals(1, index.getTimers().size());
+
+        registry.remove("b.requests");
+        assertEquals(Arrays.asList("a.requests"), Arrays.asList(index.getCounters().keySet().toArray()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewsAreReadOnly() {
+        MetricIndex index = MetricIndex.forRegistry(new MetricRegistry(), MetricFilterTransformer.generateFilter(null));
+        index.getCounters().clear();
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetricNameCacheTest
+{
+
+    @Test
+    public void entriesLiveUntilTheMetricIsRemoved()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MetricNameCache<String> cache = new MetricNameCache<String>();
+        registry.addListener(cache);
+        registry.counter("requests");
+        registry.timer("latency");
+
+        assertNull(cache.putIfAbsent("requests", "a"));
+        assertEquals("a", cache.putIfAbsent("requests", "b"));
+        cache.put("latency", "c");
+        assertEquals(2, cache.size());
+
+        registry.remove("requests");
+        assertNull(cache.get("requests"));
+        assertEquals("c", cache.get("latency"));
+
+        registry.removeListener(cache);
+        registry.remove("latency");
+        assertEquals("c", cache.get("latency"));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.nio.charset.StandardCharsets;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MetricPathCacheTest
+{
+    private static final String[] SUFFIXES = {null, "count", "p99"};
+
+    @Test
+    public void rendersOncePerMeasurement()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MetricPathCache cache = MetricPathCache.forRegistry(registry, "prefix", SUFFIXES);
+        MetricPathCache.Paths paths = cache.get("requests");
+
+        assertEquals("prefix.requests", new String(paths.get(0), StandardCharsets.UTF_8));
+        assertEquals("prefix.requests.p99", new String(paths.get(2), StandardCharsets.UTF_8));
+        assertSame(paths, cache.get("requests"));
+        assertSame(paths.get(2), cache.get("requests").get(2));
+    }
+
+    @Test
+    public void forgetsRemovedMetrics()
+    {
+        MetricRegistry registry = new MetricRegistry();
+        MetricPathCache cache = MetricPathCache.forRegistry(registry, null, SUFFIXES);
+        registry.counter("requests");
+        MetricPathCache.Paths paths = cache.get("requests");
+        paths.setRoute(1, 3);
+        assertEquals("requests.count", new String(paths.get(1), StandardCharsets.UTF_8));
+
+        registry.remove("requests");
+        assertEquals(0, cache.size());
+        MetricPathCache.Paths fresh = cache.get("requests");
+        assertNotSame(paths, fresh);
+        assertEquals(-1, fresh.getRoute(1));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.addthis.metrics3.reporter.config.statsd.StatsDPacketSender;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PackedStatsDReporterTest {
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private DatagramSocket statsd;
+    private PackedStatsDReporter reporter;
+
+    @Before
+    public void setUp() throws IOException {
+        statsd = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        statsd.setSoTimeout(500);
+        StatsDPacketSender sender = new StatsDPacketSender(
+                Collections.singletonList(InetAddress.getLoopbackAddress().getHostAddress()),
+                Collections.singletonList(statsd.getLocalPort()), StatsDPacketSender.DEFAULT_MAX_PACKET_SIZE);
+        reporter = new PackedStatsDReporter(sender, registry, "test", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        reporter.stop();
+        statsd.close();
+    }
+
+    @Test
+    public void countsAreGaugesByDefault() throws IOException {
+        registry.counter("requests").inc(5);
+        reporter.report();
+        assertEquals(Collections.singletonList("test.requests.count:5|g"), receive());
+        reporter.report();
+        assertEquals(Collections.singletonList("test.requests.count:5|g"), receive());
+    }
+
+    @Test
+    public void deltaCountersSendOnlyChanges() throws IOException {
+        reporter.setDeltaCounters(true);
+        Counter requests = registry.counter("requests");
+        Counter errors = registry.counter("errors");
+        requests.inc(5);
+        reporter.report();
+        assertEquals(Collections.singletonList("test.requests.count:5|c"), receive());
+
+        requests.inc(2);
+        errors.inc();
+        reporter.report();
+        assertEquals(Arrays.asList("test.errors.count:1|c", "test.requests.count:2|c"), receive());
+
+        reporter.report();
+        assertNothingReceived();
+
+        requests.dec(3);
+        reporter.report();
+        assertEquals(Collections.singletonList("test.requests.count:-3|c"), receive());
+    }
+
+    @Test
+    public void deltaCountersStartOverForReregisteredMetric() throws IOException {
+        reporter.setDeltaCounters(true);
+        registry.counter("requests").inc(5);
+        reporter.report();
+        receive();
+
+        registry.remove("requests");
+        registry.counter("requests").inc(2);
+        reporter.report();
+        assertEquals(Collections.singletonList("test.requests.count:2|c"), receive());
+    }
+
+    @Test
+    public void deltaMeterCountKeepsRates() throws IOException {
+        reporter.setDeltaCounters(true);
+        Meter meter = registry.meter("hits");
+        meter.mark(4);
+        reporter.report();
+        List<String> lines = receive();
+        assertEquals("test.hits.samples:4|c", lines.get(0));
+        assertEquals(5, lines.size());
+
+        reporter.report();
+        lines = receive();
+        assertEquals(4, lines.size());
+        for (String line : lines) {
+            assertTrue(line, line.endsWith("|g"));
+        }
+    }
+
+    private List<String> receive() throws IOException {
+        byte[] buffer = new byte[65536];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        statsd.receive(packet);
+        String body = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+        return Arrays.asList(body.split("\n"));
+    }
+
+    private void assertNothingReceived() throws IOException {
+        try {
+            fail("unexpected packet " + receive());
+        } catch (SocketTimeoutException e) {
+            // nothing changed, nothing sent
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusReporterTest {
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    /**
+     * Fake pushgateway recording what it was sent.
+     */
+    private static class RecordingHandler implements HttpHandler {
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch release;
+
+        RecordingHandler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + "\n" + body.toString("UTF-8"));
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        }
+    }
+
+    private String start(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.start();
+        servers.add(server);
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        for (HttpServer server : servers) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void slowGatewayDoesNotDelayOthers() throws IOException {
+        CountDownLatch never = new CountDownLatch(1);
+        RecordingHandler fast = new RecordingHandler(new CountDownLatch(0));
+        RecordingHandler slow = new RecordingHandler(never);
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc(2);
+        PrometheusReporter reporter = new PrometheusReporter(Arrays.asList(start(slow), start(fast)), "batch",
+                Collections.<String, String>emptyMap(), registry, "prometheus", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS, 300);
+        try {
+            long started = System.nanoTime();
+            reporter.report();
+            assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(1, fast.requests.size());
+            assertTrue(fast.requests.get(0).startsWith("PUT /metrics/job/batch\n"));
+            assertTrue(fast.requests.get(0).contains("app_requests{job=\"batch\"} 2\n"));
+
+            // the slow gateway is skipped while its push is outstanding
+            reporter.report();
+            assertEquals(2, fast.requests.size());
+            assertEquals(0, slow.requests.size());
+        } finally {
+            never.countDown();
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void deltaPushesOnlyChangedFamilies() throws IOException {
+        RecordingHandler gateway = new RecordingHandler(new CountDownLatch(0));
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc();
+        registry.counter("app.static").inc(7);
+        PrometheusReporter reporter = new PrometheusReporter(Arrays.asList(start(gateway)), "batch",
+                Collections.<String, String>emptyMap(), registry, "prometheus", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS, 5000);
+        reporter.setFullPushEvery(3);
+        try {
+            reporter.report();
+            registry.counter("app.requests").inc();
+            reporter.report();
+            reporter.report();
+            reporter.report();
+
+            assertEquals(3, gateway.requests.size());
+            String first = gateway.requests.get(0);
+            assertTrue(first.startsWith("PUT "));
+            assertTrue(first.contains("app_static{job=\"batch\"} 7\n"));
+
+            String delta = gateway.requests.get(1);
+            assertTrue(delta.startsWith("POST "));
+            assertTrue(delta.contains("app_requests{job=\"batch\"} 2\n"));
+            assertTrue(!delta.contains("app_static"));
+
+            // the third tick had no changes and sent nothing; the fourth is a full resync
+            String resync = gateway.requests.get(2);
+            assertTrue(resync.startsWith("PUT "));
+            assertTrue(resync.contains("app_static{job=\"batch\"} 7\n"));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void reportAfterStopPushesNothing() throws IOException {
+        RecordingHandler gateway = new RecordingHandler(new CountDownLatch(0));
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc();
+        PrometheusReporter reporter = new PrometheusReporter(Arrays.asList(start(gateway)), "batch",
+                Collections.<String, String>emptyMap(), registry, "prometheus", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS, 5000);
+        reporter.stop();
+
+        reporter.report();
+        reporter.report();
+
+        assertEquals(0, gateway.requests.size());
+    }
+
+    @Test
+    public void resyncsAfterSkippingSlowGateway() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler gateway = new RecordingHandler(release);
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc();
+        PrometheusReporter reporter = new PrometheusReporter(Arrays.asList(start(gateway)), "batch",
+                Collections.<String, String>emptyMap(), registry, "prometheus", MetricFilter.ALL,
+                TimeUnit.SECONDS, TimeUnit.MILLISECONDS, 300);
+        reporter.setFullPushEvery(100);
+        try {
+            reporter.report();
+            registry.counter("app.requests").inc();
+            // skipped while the first push is outstanding
+            reporter.report();
+            release.countDown();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (gateway.requests.size() < 2 && System.nanoTime() < deadline) {
+                reporter.report();
+                Thread.sleep(50);
+            }
+            assertEquals(2, gateway.requests.size());
+            String resync = gateway.requests.get(1);
+            assertTrue(resync.startsWith("PUT "));
+            assertTrue(resync.contains("app_requests{job=\"batch\"} 2\n"));
+        } finally {
+            reporter.stop();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Timer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReporterSchedulerTest {
+
+    private static class SlowReporter extends ScheduledReporter {
+        final AtomicInteger ticks = new AtomicInteger();
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        SlowReporter(MetricRegistry registry) {
+            super(registry, "slow", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                           SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                           SortedMap<String, Timer> timers) {
+            if (!running.compareAndSet(false, true)) {
+                overlapped.set(true);
+            }
+            try {
+                Thread.sleep(30);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ticks.incrementAndGet();
+            running.set(false);
+        }
+
+        @Override
+        public void stop() {
+            stopped.set(true);
+            super.stop();
+        }
+    }
+
+    @Test
+    public void sharedExecutorNeverOverlapsTicks() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        ConsoleReporterConfig config = new ConsoleReporterConfig();
+        config.setPeriod(5);
+        config.setTimeunit("MILLISECONDS");
+
+        ReporterScheduler scheduler = new ReporterScheduler(false, 4);
+        SlowReporter first = new SlowReporter(registry);
+        SlowReporter second = new SlowReporter(registry);
+        scheduler.schedule(first, config, registry);
+        scheduler.schedule(second, config, registry);
+        Thread.sleep(300);
+        scheduler.stop();
+
+        assertTrue(first.ticks.get() > 1);
+        assertTrue(second.ticks.get() > 1);
+        assertFalse(first.overlapped.get());
+        assertFalse(second.overlapped.get());
+    }
+
+    @Test
+    public void stopCancelsTicksAndStopsReporters() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        ConsoleReporterConfig config = new ConsoleReporterConfig();
+        config.setPeriod(5);
+        config.setTimeunit("MILLISECONDS");
+
+        ReporterScheduler scheduler = new ReporterScheduler(true);
+        SlowReporter reporter = new SlowReporter(registry);
+        scheduler.schedule(reporter, config, registry);
+        Thread.sleep(100);
+        scheduler.stop();
+        assertTrue(reporter.stopped.get());
+
+        // a tick already running when stop() was called may still finish
+        Thread.sleep(50);
+        int ticks = reporter.ticks.get();
+        Thread.sleep(100);
+        assertEquals(ticks, reporter.ticks.get());
+    }
+
+    @Test
+    public void schedulerBlock() throws Exception {
+        ReporterConfig config = ReporterConfig.loadFromFileAndValidate("src/test/resources/sample/scheduler.yaml");
+        assertNotNull(config.getScheduler());
+        assertEquals(2, config.getScheduler().getThreads());
+    }
+}
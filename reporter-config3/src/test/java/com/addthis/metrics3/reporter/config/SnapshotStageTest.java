@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config;
+
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.addthis.metrics.reporter.config.PredicateConfig;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStageTest {
+
+    private static class CountingTimer extends Timer {
+        final AtomicInteger snapshots = new AtomicInteger();
+
+        @Override
+        public Snapshot getSnapshot() {
+            snapshots.incrementAndGet();
+            return super.getSnapshot();
+        }
+    }
+
+    private static class CapturingReporter extends ScheduledReporter {
+        SortedMap<String, Gauge> gauges;
+        SortedMap<String, Counter> counters;
+        SortedMap<String, Timer> timers;
+
+        CapturingReporter(MetricRegistry registry) {
+            super(registry, "capturing", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+                           SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters,
+                           SortedMap<String, Timer> timers) {
+            this.gauges = gauges;
+            this.counters = counters;
+            this.timers = timers;
+        }
+    }
+
+    @Test
+    public void snapshotsOncePerTick() {
+        MetricRegistry registry = new MetricRegistry();
+        CountingTimer timer = registry.register("requests", new CountingTimer());
+        timer.update(5, TimeUnit.MILLISECONDS);
+
+        CapturingReporter first = new CapturingReporter(registry);
+        CapturingReporter second = new CapturingReporter(registry);
+        SnapshotStage stage = new SnapshotStage(registry);
+        stage.addSink(first, MetricFilter.ALL);
+        stage.addSink(second, MetricFilter.ALL);
+        stage.run();
+
+        assertEquals(1, timer.snapshots.get());
+        assertEquals(1, first.timers.get("requests").getCount());
+        assertSame(first.timers.get("requests").getSnapshot(), second.timers.get("requests").getSnapshot());
+    }
+
+    @Test
+    public void appliesSinkFilter() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("kept").inc();
+        registry.counter("dropped_JMXONLY").inc(3);
+
+        CapturingReporter filtered = new CapturingReporter(registry);
+        CapturingReporter unfiltered = new CapturingReporter(registry);
+        SnapshotStage stage = new SnapshotStage(registry);
+        stage.addSink(filtered, MetricFilterTransformer.generateFilter(
+                new PredicateConfig("black", Arrays.asList(".*JMXONLY$"))));
+        stage.addSink(unfiltered, MetricFilter.ALL);
+        stage.run();
+
+        assertEquals(1, filtered.counters.size());
+        assertTrue(filtered.counters.containsKey("kept"));
+        assertEquals(2, unfiltered.counters.size());
+        assertEquals(3, unfiltered.counters.get("dropped_JMXONLY").getCount());
+    }
+
+    @Test
+    public void skipsMetricsThatFail() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.register("broken", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                throw new IllegalStateException("broken");
+            }
+        });
+        registry.counter("requests").inc(2);
+
+        CapturingReporter reporter = new CapturingReporter(registry);
+        SnapshotStage stage = new SnapshotStage(registry);
+        stage.addSink(reporter, MetricFilter.ALL);
+        stage.run();
+
+        assertTrue(reporter.gauges.isEmpty());
+        assertEquals(2, reporter.counters.get("requests").getCount());
+    }
+}
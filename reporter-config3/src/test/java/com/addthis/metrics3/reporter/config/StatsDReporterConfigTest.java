@@ -101,6 +101,33 @@ public class StatsDReporterConfigTest {
         config.stopForTests();
     }
 
+    @Test
+    public void startManyHostsPacked() {
+        MetricRegistry mockMetricRegistry = mock(MetricRegistry.class);
+        StatsDReporterConfig config = buildConfig(
+            Arrays.asList(testHostPort1, testHostPort2),
+            testTimeunit.toString());
+        config.setPacked(true);
+        assertTrue(config.enable(mockMetricRegistry));
+        config.report();
+        // one reporter for every host
+        verifyReportEffects(mockMetricRegistry, 1);
+        config.stopForTests();
+    }
+
+    @Test
+    public void startPackedBadField() {
+        MetricRegistry mockMetricRegistry = mock(MetricRegistry.class);
+        StatsDReporterConfig config = buildConfig(
+            Arrays.asList(testHostPort1, testHostPort2),
+            testBadTimeunit);
+        config.setPacked(true);
+        assertFalse(config.enable(mockMetricRegistry));
+        config.report();
+        verifyReportEffects(mockMetricRegistry, 0);
+        config.stopForTests();
+    }
+
     private static StatsDReporterConfig buildConfig(List<HostPort> hosts, String timeUnit) {
         StatsDReporterConfig reporter = new StatsDReporterConfig();
 
@@ -0,0 +1,271 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.github.hengyunabc.zabbix.sender.ZabbixSender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ZabbixReporterTest {
+
+    private static final Pattern KEY = Pattern.compile("\"key\":\"([^\"]*)\"");
+
+    private final FakeTrapper trapper;
+
+    public ZabbixReporterTest() throws IOException {
+        trapper = new FakeTrapper();
+    }
+
+    /**
+     * Fake Zabbix trapper recording the item keys of each request and
+     * answering that all of them were processed, that the request failed
+     * while {@code failing} is set, or that one item failed while
+     * {@code oneItemFails} is set.
+     */
+    private static class FakeTrapper implements Runnable {
+        final ServerSocket socket;
+        final BlockingQueue<List<String>> received = new LinkedBlockingQueue<>();
+        volatile boolean failing;
+        volatile boolean oneItemFails;
+
+        FakeTrapper() throws IOException {
+            this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(this, "fake-trapper");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try (Socket connection = socket.accept()) {
+                    DataInputStream in = new DataInputStream(connection.getInputStream());
+                    byte[] header = new byte[13];
+                    in.readFully(header);
+                    byte[] body = new byte[(int) ByteBuffer.wrap(header, 5, 8).order(ByteOrder.LITTLE_ENDIAN).getLong()];
+                    in.readFully(body);
+
+                    List<String> keys = new ArrayList<>();
+                    Matcher matcher = KEY.matcher(new String(body, StandardCharsets.UTF_8));
+                    while (matcher.find()) {
+                        keys.add(matcher.group(1));
+                    }
+                    received.add(keys);
+
+                    int processed = failing ? 0 : oneItemFails ? keys.size() - 1 : keys.size();
+                    byte[] answer = ("{\"response\":\"" + (failing ? "failed" : "success") + "\",\"info\":\"processed: "
+                                     + processed + "; failed: " + (keys.size() - processed) + "; total: " + keys.size()
+                                     + "; seconds spent: 0.000100\"}")
+                            .getBytes(StandardCharsets.UTF_8);
+                    OutputStream out = connection.getOutputStream();
+                    out.write(new byte[] {'Z', 'B', 'X', 'D', 1});
+                    out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(answer.length).array());
+                    out.write(answer);
+                    out.flush();
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+    }
+
+    @After
+    public void stopTrapper() throws IOException {
+        trapper.socket.close();
+    }
+
+    private ZabbixReporter reporter(MetricRegistry registry, int batchSize, int parallelism) {
+        ZabbixSender sender = new ZabbixSender("127.0.0.1", trapper.socket.getLocalPort(), 2000, 2000);
+        return new ZabbixReporter(sender, "host", "prefix.", registry, "zabbix", MetricFilter.ALL,
+                                  TimeUnit.SECONDS, TimeUnit.MILLISECONDS, batchSize, parallelism);
+    }
+
+    @Test
+    public void splitsItemsIntoBatches() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        for (int i = 0; i < 7; i++) {
+            registry.counter("requests" + i).inc(i);
+        }
+
+        ZabbixReporter reporter = reporter(registry, 3, 2);
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        List<String> keys = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<String> request = trapper.received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(request);
+            sizes.add(request.size());
+            keys.addAll(request);
+        }
+        assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+        Collections.sort(sizes);
+        assertEquals("[1, 3, 3]", sizes.toString());
+        Collections.sort(keys);
+        assertEquals(7, keys.size());
+        assertEquals("prefix.requests0", keys.get(0));
+        assertEquals("prefix.requests6", keys.get(6));
+    }
+
+    @Test
+    public void oneBatchWhenItFits() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.timer("latency").update(5, TimeUnit.MILLISECONDS);
+
+        ZabbixReporter reporter = reporter(registry, 250, 1);
+        try {
+            reporter.report();
+        } finally {
+            reporter.stop();
+        }
+
+        List<String> request = trapper.received.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request);
+        assertEquals(15, request.size());
+        assertEquals("prefix.latency.count", request.get(0));
+        assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void skipsUnchangedItems() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        Counter requests = registry.counter("requests");
+        Counter errors = registry.counter("errors");
+        requests.inc();
+
+        ZabbixReporter reporter = reporter(registry, 250, 1);
+        reporter.setSendUnchanged(false, 0);
+        try {
+            reporter.report();
+            assertEquals(Arrays.asList("prefix.errors", "prefix.requests"), trapper.received.poll(5, TimeUnit.SECONDS));
+
+            reporter.report();
+            assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+
+            requests.inc();
+            reporter.report();
+            assertEquals(Collections.singletonList("prefix.requests"), trapper.received.poll(5, TimeUnit.SECONDS));
+
+            errors.inc();
+            errors.dec();
+            reporter.report();
+            assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void resendsUnchangedItemsOnHeartbeat() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+
+        ZabbixReporter reporter = reporter(registry, 250, 1);
+        reporter.setSendUnchanged(false, 1);
+        try {
+            reporter.report();
+            assertEquals(Collections.singletonList("prefix.requests"), trapper.received.poll(5, TimeUnit.SECONDS));
+
+            // the heartbeat is due once the clock moved on by a whole second
+            Thread.sleep(2000);
+            reporter.report();
+            assertEquals(Collections.singletonList("prefix.requests"), trapper.received.poll(5, TimeUnit.SECONDS));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void resendsItemsOfFailedRequests() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+        registry.counter("errors");
+
+        ZabbixReporter reporter = reporter(registry, 1, 2);
+        reporter.setSendUnchanged(false, 0);
+        try {
+            trapper.failing = true;
+            reporter.report();
+            assertNotNull(trapper.received.poll(5, TimeUnit.SECONDS));
+            assertNotNull(trapper.received.poll(5, TimeUnit.SECONDS));
+
+            trapper.failing = false;
+            reporter.report();
+            List<String> keys = new ArrayList<>();
+            keys.addAll(trapper.received.poll(5, TimeUnit.SECONDS));
+            keys.addAll(trapper.received.poll(5, TimeUnit.SECONDS));
+            Collections.sort(keys);
+            assertEquals(Arrays.asList("prefix.errors", "prefix.requests"), keys);
+
+            reporter.report();
+            assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            reporter.stop();
+        }
+    }
+
+    @Test
+    public void remembersItemsOfPartlyFailedRequests() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+        registry.counter("unknown");
+
+        ZabbixReporter reporter = reporter(registry, 250, 1);
+        reporter.setSendUnchanged(false, 0);
+        trapper.oneItemFails = true;
+        try {
+            reporter.report();
+            assertEquals(Arrays.asList("prefix.requests", "prefix.unknown"), trapper.received.poll(5, TimeUnit.SECONDS));
+
+            reporter.report();
+            assertNull(trapper.received.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            reporter.stop();
+        }
+    }
+}
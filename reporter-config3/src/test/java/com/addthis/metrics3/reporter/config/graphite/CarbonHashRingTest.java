@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CarbonHashRingTest {
+
+    private static CarbonHashRing ring(String... serversAndInstances) {
+        String[] servers = new String[serversAndInstances.length / 2];
+        String[] instances = new String[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            servers[i] = serversAndInstances[2 * i];
+            instances[i] = serversAndInstances[2 * i + 1];
+        }
+        return new CarbonHashRing(Arrays.asList(servers), Arrays.asList(instances));
+    }
+
+    /**
+     * Expected nodes are what carbon's ConsistentHashRing returns for
+     * destinations carbon-a, carbon-b and carbon-c:c.
+     */
+    @Test
+    public void matchesCarbonRelay() {
+        CarbonHashRing ring = ring("carbon-a", null, "carbon-b", null, "carbon-c", "c");
+        assertEquals(0, ring.getNode("servers.web1.cpu.user"));
+        assertEquals(2, ring.getNode("servers.web2.requests.count"));
+        assertEquals(0, ring.getNode("app.latency.p99"));
+        assertEquals(2, ring.getNode("z.y.x.m1_rate"));
+        assertEquals(1, ring.getNode("servers.web3.cpu.idle"));
+        assertEquals(1, ring.getNode("servers.db1.disk.used"));
+        assertEquals(2, ring.getNode("metrics.b"));
+        assertEquals(0, ring.getNode("metrics.c"));
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsPaths() {
+        CarbonHashRing three = ring("carbon-a", null, "carbon-b", null, "carbon-c", "c");
+        CarbonHashRing two = ring("carbon-a", null, "carbon-b", null);
+        for (int i = 0; i < 10000; i++) {
+            String path = "m." + i;
+            int node = three.getNode(path);
+            if (node != 2) {
+                assertEquals(path, node, two.getNode(path));
+            }
+        }
+    }
+
+    @Test
+    public void pythonRepr() {
+        assertEquals("None", CarbonHashRing.pythonRepr(null));
+        assertEquals("'carbon-a'", CarbonHashRing.pythonRepr("carbon-a"));
+        assertEquals("\"it's\"", CarbonHashRing.pythonRepr("it's"));
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CarbonSpoolTest {
+
+    private final File file;
+
+    public CarbonSpoolTest() throws IOException {
+        file = File.createTempFile("carbon", ".spool");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static void append(CarbonSpool spool, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        assertTrue(spool.append(bytes, 0, bytes.length));
+    }
+
+    private static String poll(CarbonSpool spool) {
+        byte[] payload = spool.peek();
+        spool.remove();
+        return payload == null ? null : new String(payload, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void firstInFirstOutAcrossTheEndOfTheFile() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 32 + 40);
+        try {
+            for (int i = 0; i < 20; i++) {
+                append(spool, "tick " + i);
+                append(spool, "tick " + i + "b");
+                assertEquals("tick " + i, poll(spool));
+                assertEquals("tick " + i + "b", poll(spool));
+            }
+            assertTrue(spool.isEmpty());
+            assertNull(spool.peek());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void fullSpoolDropsOldest() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 32 + 30);
+        try {
+            append(spool, "0123456789");
+            append(spool, "abcdefghij");
+            append(spool, "ABCDEFGHIJ");
+            assertEquals("abcdefghij", poll(spool));
+            assertEquals("ABCDEFGHIJ", poll(spool));
+            assertTrue(spool.isEmpty());
+            byte[] tooLarge = new byte[64];
+            assertFalse(spool.append(tooLarge, 0, tooLarge.length));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 1024);
+        append(spool, "first");
+        append(spool, "second");
+        assertEquals("first", poll(spool));
+        spool.close();
+
+        spool = new CarbonSpool(file, 1024);
+        try {
+            assertEquals("second", poll(spool));
+            assertTrue(spool.isEmpty());
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void fileCanOnlyBeOpenedOnce() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 1024);
+        try {
+            new CarbonSpool(file, 1024);
+            fail("spool should be locked");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("already in use"));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void damagedRecordEmptiesTheSpool() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 32 + 64);
+        append(spool, "tick 1");
+        append(spool, "tick 2");
+        spool.close();
+        // the first record's length, as a torn append could leave it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(32);
+            raf.writeInt(-7);
+        }
+
+        spool = new CarbonSpool(file, 32 + 64);
+        try {
+            assertFalse(spool.isEmpty());
+            assertNull(spool.peek());
+            assertTrue(spool.isEmpty());
+            append(spool, "tick 3");
+            assertEquals("tick 3", poll(spool));
+        } finally {
+            spool.close();
+        }
+    }
+
+    @Test
+    public void damagedRecordIsDroppedWhenMakingRoom() throws IOException {
+        CarbonSpool spool = new CarbonSpool(file, 32 + 20);
+        append(spool, "0123456789");
+        spool.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(32);
+            raf.writeInt(1 << 20);
+        }
+
+        spool = new CarbonSpool(file, 32 + 20);
+        try {
+            append(spool, "abcdefghij");
+            assertEquals("abcdefghij", poll(spool));
+            assertTrue(spool.isEmpty());
+        } finally {
+            spool.close();
+        }
+    }
+}
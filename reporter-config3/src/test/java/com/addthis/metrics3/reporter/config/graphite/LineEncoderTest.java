@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineEncoderTest {
+
+    private static String encode(String path, double value) {
+        LineEncoder encoder = new LineEncoder(16);
+        encoder.add(path, value, 1500000000L);
+        return new String(encoder.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void doublesMatchGraphiteReporter() {
+        double[] values = {0.0, -0.0, 5.0, -3.0, 0.125, 1.005, 2.5e-7, 1e15, 123456789.987, Double.NaN,
+                           Double.POSITIVE_INFINITY, 1e300};
+        for (double value : values) {
+            String expected = "a " + String.format(Locale.US, "%2.2f", value) + " 1500000000\n";
+            assertEquals(expected, encode("a", value));
+        }
+    }
+
+    @Test
+    public void sanitizesPaths() {
+        assertEquals("a-b.c-d 1.50 1500000000\n", encode("a b.c \t d", 1.5));
+        assertEquals("café-x 1.50 1500000000\n", encode("café x", 1.5));
+    }
+
+    @Test
+    public void cachedPathsAreCopied() {
+        LineEncoder encoder = new LineEncoder(16);
+        byte[] path = "servers.web1.count".getBytes(StandardCharsets.UTF_8);
+        encoder.add(path, 42L, 1500000000L);
+        encoder.add(path, 0.5, 1500000000L);
+        assertEquals("servers.web1.count 42 1500000000\nservers.web1.count 0.50 1500000000\n",
+                     new String(encoder.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PersistentTcpCarbonSenderTest {
+
+    private static String readAll(Socket connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = connection.getInputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            body.write(buffer, 0, read);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static void send(CarbonSender sender, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        sender.send(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void reusesOneConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(5000);
+            PersistentTcpCarbonSender sender = new PersistentTcpCarbonSender("127.0.0.1", server.getLocalPort(), 2000);
+            send(sender, "a 1 1\n");
+            send(sender, "b 2 2\n");
+            sender.close();
+            try (Socket connection = server.accept()) {
+                assertEquals("a 1 1\nb 2 2\n", readAll(connection));
+            }
+        }
+    }
+
+    @Test
+    public void reconnectsWhenReceiverClosed() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(5000);
+            PersistentTcpCarbonSender sender = new PersistentTcpCarbonSender("127.0.0.1", server.getLocalPort(), 2000);
+            send(sender, "a 1 1\n");
+            try (Socket first = server.accept()) {
+                byte[] line = new byte[6];
+                assertEquals(6, first.getInputStream().read(line));
+            }
+            Thread.sleep(100);
+            send(sender, "b 2 2\n");
+            sender.close();
+            try (Socket second = server.accept()) {
+                assertEquals("b 2 2\n", readAll(second));
+            }
+        }
+    }
+
+    @Test
+    public void backsOffAfterFailure() throws Exception {
+        ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        int port = closed.getLocalPort();
+        closed.close();
+        PersistentTcpCarbonSender sender = new PersistentTcpCarbonSender("127.0.0.1", port, 2000);
+        try {
+            send(sender, "a 1 1\n");
+            fail("connect should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            send(sender, "a 1 1\n");
+            fail("should be backing off");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("not reconnecting"));
+        }
+    }
+
+    @Test
+    public void writeToStalledReceiverTimesOut() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            PersistentTcpCarbonSender sender = new PersistentTcpCarbonSender("127.0.0.1", server.getLocalPort(), 200);
+            // never accepted nor read, so the write fills the socket buffers and blocks
+            byte[] payload = new byte[32 * 1024 * 1024];
+            long started = System.nanoTime();
+            try {
+                sender.send(payload, 0, payload.length);
+                fail("write should have timed out");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("did not finish within 200 ms"));
+            }
+            assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(10));
+            sender.close();
+        }
+    }
+}
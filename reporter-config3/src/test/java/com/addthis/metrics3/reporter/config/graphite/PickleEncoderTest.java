@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PickleEncoderTest {
+
+    @Test
+    public void singleValueFrame() {
+        PickleEncoder encoder = new PickleEncoder(16, 10);
+        encoder.add("a b", 3L, 1500000000L);
+        byte[] expected = {
+                0, 0, 0, 30,
+                (byte) 0x80, 2, ']', '(',
+                'X', 3, 0, 0, 0, 'a', '-', 'b',
+                'J', 0x00, 0x2f, 0x68, 0x59,
+                'G', 0x40, 0x08, 0, 0, 0, 0, 0, 0,
+                (byte) 0x86, (byte) 0x86,
+                'e', '.'};
+        assertArrayEquals(expected, encoder.toByteArray());
+    }
+
+    @Test
+    public void framesHoldAtMostBatchSizeValues() {
+        PickleEncoder encoder = new PickleEncoder(16, 2);
+        for (int i = 0; i < 5; i++) {
+            encoder.add("metric" + i, i * 1.5, 1500000000L);
+        }
+        ByteBuffer frames = ByteBuffer.wrap(encoder.toByteArray());
+        int count = 0;
+        while (frames.hasRemaining()) {
+            int length = frames.getInt();
+            assertEquals((byte) 0x80, frames.get(frames.position()));
+            assertEquals('.', frames.get(frames.position() + length - 1));
+            frames.position(frames.position() + length);
+            count++;
+        }
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        PickleEncoder encoder = new PickleEncoder(16, 2);
+        encoder.add("first", 1L, 1L);
+        encoder.toByteArray();
+        encoder.reset();
+        encoder.add("a b", 3L, 1500000000L);
+        PickleEncoder fresh = new PickleEncoder(16, 2);
+        fresh.add("a b", 3L, 1500000000L);
+        assertArrayEquals(fresh.toByteArray(), encoder.toByteArray());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpoolingCarbonSenderTest {
+
+    private final File file;
+
+    public SpoolingCarbonSenderTest() throws IOException {
+        file = File.createTempFile("carbon", ".spool");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Records what it was sent, or fails while {@code down}.
+     */
+    private static class FakeSender implements CarbonSender {
+        final List<String> sent = new ArrayList<>();
+        boolean down;
+
+        @Override
+        public void send(byte[] payload, int offset, int length) throws IOException {
+            if (down) {
+                throw new IOException("down");
+            }
+            sent.add(new String(payload, offset, length, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String getAddress() {
+            return "fake:2003";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void send(CarbonSender sender, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        sender.send(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void replaysAfterLiveData() throws Exception {
+        FakeSender fake = new FakeSender();
+        SpoolingCarbonSender sender = new SpoolingCarbonSender(fake, new CarbonSpool(file, 1024), 1 << 20);
+        try {
+            fake.down = true;
+            for (String tick : new String[]{"t1", "t2"}) {
+                try {
+                    send(sender, tick);
+                    fail("send should have failed");
+                } catch (IOException e) {
+                    // spooled
+                }
+            }
+            fake.down = false;
+            Thread.sleep(20);
+            send(sender, "t3");
+            assertEquals(Arrays.asList("t3", "t1", "t2"), fake.sent);
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void replayIsPaced() throws Exception {
+        FakeSender fake = new FakeSender();
+        // 2000 bytes per second, 200 bytes per payload
+        SpoolingCarbonSender sender = new SpoolingCarbonSender(fake, new CarbonSpool(file, 8192), 2000);
+        char[] filler = new char[199];
+        Arrays.fill(filler, 'x');
+        try {
+            fake.down = true;
+            for (int i = 0; i < 20; i++) {
+                try {
+                    send(sender, i + new String(filler));
+                } catch (IOException e) {
+                    // spooled
+                }
+            }
+            fake.down = false;
+            Thread.sleep(250);
+            send(sender, "live");
+            assertEquals("live", fake.sent.get(0));
+            int replayed = fake.sent.size() - 1;
+            assertTrue("replayed " + replayed, replayed >= 1 && replayed < 20);
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void replayRateHoldsAcrossLongPeriods() throws Exception {
+        FakeSender fake = new FakeSender();
+        final long[] now = {0};
+        // 100 bytes per second reported every minute, 100 bytes per payload
+        SpoolingCarbonSender sender = new SpoolingCarbonSender(fake, new CarbonSpool(file, 65536), 100, 60000) {
+            @Override
+            long nanoTime() {
+                return now[0];
+            }
+        };
+        char[] filler = new char[97];
+        Arrays.fill(filler, 'x');
+        try {
+            fake.down = true;
+            for (int i = 100; i < 200; i++) {
+                try {
+                    send(sender, i + new String(filler));
+                } catch (IOException e) {
+                    // spooled
+                }
+            }
+            fake.down = false;
+
+            now[0] += TimeUnit.SECONDS.toNanos(60);
+            send(sender, "live");
+            assertEquals(1 + 60, fake.sent.size());
+
+            now[0] += TimeUnit.SECONDS.toNanos(60);
+            send(sender, "live");
+            assertEquals(2 + 100, fake.sent.size());
+            assertTrue(fake.sent.get(fake.sent.size() - 1).startsWith("199"));
+        } finally {
+            sender.close();
+        }
+    }
+
+    @Test
+    public void spoolsDeferredPayloads() throws Exception {
+        FakeSender fake = new FakeSender();
+        final long[] now = {0};
+        SpoolingCarbonSender sender = new SpoolingCarbonSender(fake, new CarbonSpool(file, 1024), 1 << 20) {
+            @Override
+            long nanoTime() {
+                return now[0];
+            }
+        };
+        try {
+            fake.down = true;
+            // skipped by the reporter while the send below was in flight
+            sender.defer("b 2 2\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                send(sender, "a 1 1\n");
+                fail("send should have failed");
+            } catch (IOException e) {
+                // spooled
+            }
+            fake.down = false;
+
+            now[0] += TimeUnit.SECONDS.toNanos(1);
+            send(sender, "c 3 3\n");
+            assertEquals(Arrays.asList("c 3 3\n", "a 1 1\n", "b 2 2\n"), fake.sent);
+        } finally {
+            sender.close();
+        }
+    }
+}
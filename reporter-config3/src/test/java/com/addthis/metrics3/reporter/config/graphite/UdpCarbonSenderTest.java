@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.graphite;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UdpCarbonSenderTest {
+
+    @Test
+    public void packsWholeLinesIntoPackets() throws Exception {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            lines.append("servers.web1.requests").append(i).append(".count ").append(i).append(" 1500000000\n");
+        }
+        byte[] payload = lines.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            UdpCarbonSender sender = new UdpCarbonSender("127.0.0.1", receiver.getLocalPort(), 512);
+            try {
+                sender.send(payload, 0, payload.length);
+            } finally {
+                sender.close();
+            }
+
+            StringBuilder received = new StringBuilder();
+            int packets = 0;
+            byte[] buffer = new byte[2048];
+            while (received.length() < payload.length) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                receiver.receive(packet);
+                String text = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                assertTrue(packet.getLength() <= 512);
+                assertTrue(text.endsWith("\n"));
+                received.append(text);
+                packets++;
+            }
+            assertEquals(lines.toString(), received.toString());
+            assertTrue(packets < 200 / 5);
+        }
+    }
+
+    @Test
+    public void oversizedLineGoesAlone() throws Exception {
+        byte[] payload = "a.very.long.path 1 1\nb 2 2\n".getBytes(StandardCharsets.UTF_8);
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            UdpCarbonSender sender = new UdpCarbonSender("127.0.0.1", receiver.getLocalPort(), 8);
+            try {
+                sender.send(payload, 0, payload.length);
+            } finally {
+                sender.close();
+            }
+            byte[] buffer = new byte[64];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            receiver.receive(packet);
+            assertEquals("a.very.long.path 1 1\n", new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8));
+            packet = new DatagramPacket(buffer, buffer.length);
+            receiver.receive(packet);
+            assertEquals("b 2 2\n", new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.addthis.metrics.reporter.config.PredicateConfig;
+import com.addthis.metrics3.reporter.config.MetricFilterTransformer;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import org.junit.Test;
+
+import io.prometheus.client.Collector.MetricFamilySamples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MetricRegistryDecoratorTest {
+
+    @Test
+    public void excludedMetricsAreNeverRead() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc(3);
+        registry.register("app.broken_JMXONLY", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                throw new AssertionError("excluded gauge was read");
+            }
+        });
+        registry.register("app.latency_JMXONLY", new Timer() {
+            @Override
+            public Snapshot getSnapshot() {
+                throw new AssertionError("excluded timer was snapshotted");
+            }
+        });
+        PredicateConfig predicate = new PredicateConfig("black", Arrays.asList(".*JMXONLY$"), true);
+        MetricRegistryDecorator decorator = new MetricRegistryDecorator(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilterTransformer.generateFilter(predicate));
+
+        List<MetricFamilySamples> families = decorator.collect();
+
+        assertEquals(1, families.size());
+        assertEquals("app_requests", families.get(0).name);
+        assertEquals(3.0, families.get(0).samples.get(0).value, 0.0);
+    }
+
+    @Test
+    public void metadataIsReusedUntilRemoval() {
+        MetricRegistry registry = new MetricRegistry();
+        registry.timer("app.latency");
+        MetricRegistryDecorator decorator = new MetricRegistryDecorator(registry, "job",
+                Collections.singletonMap("dc", "east"));
+
+        MetricFamilySamples first = decorator.collect().get(0);
+        MetricFamilySamples second = decorator.collect().get(0);
+        assertSame(first.name, second.name);
+        assertSame(first.help, second.help);
+        assertSame(first.samples.get(0).labelValues, second.samples.get(0).labelValues);
+        assertEquals(Arrays.asList("job", "dc", "quantile"), first.samples.get(0).labelNames);
+        assertEquals(Arrays.asList("job", "east", "0.999"), first.samples.get(5).labelValues);
+        assertEquals("app_latency_count", first.samples.get(6).name);
+
+        registry.remove("app.latency");
+        registry.meter("app.latency");
+        MetricFamilySamples meter = decorator.collect().get(0);
+        assertEquals("app_latency_total", meter.name);
+        assertTrue(meter.help.contains("Meter"));
+    }
+}
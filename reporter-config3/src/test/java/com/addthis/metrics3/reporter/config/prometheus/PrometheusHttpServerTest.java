@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusHttpServerTest {
+
+    private PrometheusHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc(5);
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        server = new PrometheusHttpServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, writer);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private HttpURLConnection open() throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "/metrics");
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void servesPlainText() throws IOException {
+        HttpURLConnection connection = open();
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(PrometheusTextWriter.CONTENT_TYPE, connection.getContentType());
+        assertTrue(read(connection.getInputStream()).contains("app_requests{job=\"job\"} 5\n"));
+    }
+
+    @Test
+    public void servesGzipWhenAccepted() throws IOException {
+        HttpURLConnection connection = open();
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("gzip", connection.getContentEncoding());
+        String body = read(new GZIPInputStream(connection.getInputStream()));
+        assertTrue(body.contains("app_requests{job=\"job\"} 5\n"));
+    }
+
+    @Test
+    public void rejectsOtherMethods() throws IOException {
+        HttpURLConnection connection = open();
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void gzipWeights() {
+        assertFalse(PrometheusHttpServer.acceptsGzip((List<String>) null));
+        assertTrue(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip")));
+        assertTrue(PrometheusHttpServer.acceptsGzip(Collections.singletonList("deflate, GZIP")));
+        assertTrue(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip;q=0.5")));
+        assertTrue(PrometheusHttpServer.acceptsGzip(Arrays.asList("identity", "gzip ; q = 1.0")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("identity")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip;q=0")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip;q=0.0")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip; q=0.00")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("deflate, gzip;Q=0")));
+        assertFalse(PrometheusHttpServer.acceptsGzip(Collections.singletonList("gzip;q=x")));
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.addthis.metrics3.reporter.config.prometheus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import com.addthis.metrics.reporter.config.HistogramBucketConfig;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.UniformReservoir;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrometheusTextWriterTest {
+
+    private static String write(PrometheusTextWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void writesTextFormat() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc(3);
+        registry.meter("app.hits").mark(2);
+        registry.histogram("app.sizes").update(7);
+        registry.register("app.ratio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return 0.25;
+            }
+        });
+        registry.register("app.mode", new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "say \"hi\"";
+            }
+        });
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.singletonMap("env", "test"), MetricFilter.ALL);
+
+        String text = write(writer);
+
+        assertTrue(text.contains("# TYPE app_requests gauge\napp_requests{job=\"job\",env=\"test\"} 3\n"));
+        assertTrue(text.contains("# TYPE app_hits_total counter\napp_hits_total{job=\"job\",env=\"test\"} 2\n"));
+        assertTrue(text.contains("# TYPE app_sizes summary\n"));
+        assertTrue(text.contains("app_sizes{job=\"job\",env=\"test\",quantile=\"0.999\"} 7\napp_sizes_count 1\n"));
+        assertTrue(text.contains("app_ratio{job=\"job\",env=\"test\"} 0.25\n"));
+        assertTrue(text.contains("app_mode{job=\"job\",env=\"test\",gauge_value=\"say \\\"hi\\\"\"} 1\n"));
+        // a second scrape reuses the cached families and the same buffer
+        registry.counter("app.requests").inc();
+        assertTrue(write(writer).contains("app_requests{job=\"job\",env=\"test\"} 4\n"));
+    }
+
+    @Test
+    public void removedMetricsDisappear() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests");
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        assertTrue(write(writer).contains("app_requests"));
+
+        registry.remove("app.requests");
+        registry.meter("app.requests");
+        String text = write(writer);
+        assertTrue(text.contains("app_requests_total{job=\"job\"} 0\n"));
+        assertFalse(text.contains("# TYPE app_requests gauge"));
+    }
+
+    @Test
+    public void scrapesWithinIntervalShareOneCollection() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        registry.register("app.slow", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return reads.incrementAndGet();
+            }
+        });
+        final PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        writer.setMinScrapeInterval(1, TimeUnit.HOURS);
+
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> scrapers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread scraper = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(write(writer));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            scrapers.add(scraper);
+            scraper.start();
+        }
+        release.countDown();
+        for (Thread scraper : scrapers) {
+            scraper.join();
+        }
+
+        assertEquals(1, reads.get());
+        assertEquals(4, results.size());
+        for (String result : results) {
+            assertTrue(result.contains("app_slow{job=\"job\"} 1\n"));
+        }
+    }
+
+    @Test
+    public void writesBucketedHistograms() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        Histogram sizes = registry.register("app.sizes", new Histogram(new UniformReservoir()));
+        sizes.update(1);
+        sizes.update(5);
+        sizes.update(20);
+        registry.histogram("other.sizes").update(3);
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        writer.setHistogramBuckets(new HistogramBuckets(Arrays.asList(
+                new HistogramBucketConfig("app\\..*", Arrays.asList(10.0, 2.0)))));
+
+        String text = write(writer);
+
+        assertTrue(text.contains("# TYPE app_sizes histogram\n"
+                + "app_sizes_bucket{job=\"job\",le=\"2.0\"} 1\n"
+                + "app_sizes_bucket{job=\"job\",le=\"10.0\"} 2\n"
+                + "app_sizes_bucket{job=\"job\",le=\"+Inf\"} 3\n"
+                + "app_sizes_sum{job=\"job\"} 26\n"
+                + "app_sizes_count{job=\"job\"} 3\n"));
+        // unmatched metrics fall back to the default bounds
+        assertTrue(text.contains("other_sizes_bucket{job=\"job\",le=\"0.005\"} 0\n"));
+        assertTrue(text.contains("other_sizes_bucket{job=\"job\",le=\"5.0\"} 1\n"));
+    }
+
+    @Test
+    public void bucketsNeverGoDown() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        Histogram sizes = registry.register("app.sizes", new Histogram(new SlidingWindowReservoir(2)));
+        sizes.update(1);
+        sizes.update(1);
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        writer.setHistogramBuckets(new HistogramBuckets(Arrays.asList(
+                new HistogramBucketConfig("app\\..*", Arrays.asList(2.0, 2.0, 10.0)))));
+
+        String first = write(writer);
+        assertTrue(first.contains("app_sizes_bucket{job=\"job\",le=\"2.0\"} 2\n"
+                + "app_sizes_bucket{job=\"job\",le=\"10.0\"} 2\n"));
+
+        // the reservoir forgot both small values
+        sizes.update(50);
+        sizes.update(50);
+        String second = write(writer);
+        assertTrue(second.contains("app_sizes_bucket{job=\"job\",le=\"2.0\"} 2\n"
+                + "app_sizes_bucket{job=\"job\",le=\"10.0\"} 2\n"
+                + "app_sizes_bucket{job=\"job\",le=\"+Inf\"} 4\n"
+                + "app_sizes_sum{job=\"job\"} 200\n"));
+    }
+
+    @Test
+    public void gzipLeavesTheStreamOpen() throws IOException {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("app.requests").inc(3);
+        PrometheusTextWriter writer = new PrometheusTextWriter(registry, "job",
+                Collections.<String, String>emptyMap(), MetricFilter.ALL);
+        final AtomicInteger closes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        };
+
+        writer.writeGzip(out);
+        out.write('\n');
+
+        assertEquals(0, closes.get());
+        byte[] bytes = out.toByteArray();
+        assertEquals('\n', bytes[bytes.length - 1]);
+        assertEquals(write(writer), new String(gunzip(Arrays.copyOf(bytes, bytes.length - 1)), "UTF-8"));
+
+        writer.setMinScrapeInterval(1, TimeUnit.MINUTES);
+        ByteArrayOutputStream cached = new ByteArrayOutputStream();
+        writer.writeGzip(cached);
+        assertEquals(write(writer), new String(gunzip(cached.toByteArray()), "UTF-8"));
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.statsd;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsDPacketSenderTest {
+
+    private static byte[] path(String path) {
+        return path.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String receive(DatagramSocket receiver) throws Exception {
+        byte[] buffer = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        receiver.receive(packet);
+        return new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void packsLinesUpToTheLimit() throws Exception {
+        try (DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setSoTimeout(5000);
+            StatsDPacketSender sender = new StatsDPacketSender(Collections.singletonList("127.0.0.1"),
+                    Collections.singletonList(receiver.getLocalPort()), 256);
+            StringBuilder expected = new StringBuilder();
+            try {
+                sender.begin();
+                for (int i = 0; i < 100; i++) {
+                    sender.add(path("prefix.requests" + i + ".count"), i, 'g');
+                    expected.append("prefix.requests").append(i).append(".count:").append(i).append("|g\n");
+                }
+                sender.end();
+            } finally {
+                sender.close();
+            }
+
+            StringBuilder received = new StringBuilder();
+            for (int packets = 0; packets < sender.getPacketsSent(); packets++) {
+                String packet = receive(receiver);
+                assertTrue(packet.length() <= 256);
+                received.append(packet).append('\n');
+            }
+            assertEquals(expected.toString(), received.toString());
+            assertTrue(sender.getPacketsSent() < 100 / 5);
+        }
+    }
+
+    @Test
+    public void everyPacketGoesToEveryHost() throws Exception {
+        try (DatagramSocket first = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket second = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            first.setSoTimeout(5000);
+            second.setSoTimeout(5000);
+            StatsDPacketSender sender = new StatsDPacketSender(Arrays.asList("127.0.0.1", "127.0.0.1"),
+                    Arrays.asList(first.getLocalPort(), second.getLocalPort()), 1432);
+            try {
+                sender.begin();
+                sender.add(path("a"), 1.5, 'g');
+                sender.add(path("b"), 2.0, 'g');
+                sender.add(path("c"), -3L, 'c');
+                sender.end();
+            } finally {
+                sender.close();
+            }
+            assertEquals("a:1.50|g\nb:2.00|g\nc:-3|c", receive(first));
+            assertEquals("a:1.50|g\nb:2.00|g\nc:-3|c", receive(second));
+        }
+    }
+}
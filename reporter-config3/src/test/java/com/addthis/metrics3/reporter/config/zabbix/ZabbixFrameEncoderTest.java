@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.zabbix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ZabbixFrameEncoderTest {
+
+    private static byte[] key(String key) {
+        return ZabbixFrameEncoder.escape(key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String body(ZabbixFrameEncoder encoder, int length) {
+        byte[] frame = encoder.getBuffer();
+        assertEquals("ZBXD\u0001", new String(frame, 0, 5, StandardCharsets.US_ASCII));
+        assertEquals(length - 13, ByteBuffer.wrap(frame, 5, 8).order(ByteOrder.LITTLE_ENDIAN).getLong());
+        return new String(frame, 13, length - 13, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writesSenderRequest() {
+        ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("web-1", 16);
+        encoder.begin(1500000000L);
+        encoder.add(key("requests"), 42L);
+        encoder.add(key("latency.mean"), 1.5);
+        int length = encoder.end();
+
+        assertEquals(2, encoder.getItemCount());
+        assertEquals("{\"request\":\"sender data\",\"data\":["
+                     + "{\"host\":\"web-1\",\"key\":\"requests\",\"value\":\"42\",\"clock\":1500000000},"
+                     + "{\"host\":\"web-1\",\"key\":\"latency.mean\",\"value\":\"1.5\",\"clock\":1500000000}"
+                     + "],\"clock\":1500000000}", body(encoder, length));
+    }
+
+    @Test
+    public void emptyRequest() {
+        ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("h", 0);
+        encoder.begin(7);
+        assertEquals("{\"request\":\"sender data\",\"data\":[],\"clock\":7}", body(encoder, encoder.end()));
+    }
+
+    @Test
+    public void valuesMatchStringValueOf() {
+        Object[] values = {
+            0L, -1L, Long.MAX_VALUE, Long.MIN_VALUE, 7, (short) 3, (byte) -2,
+            0.0, -0.0, 5.0, -5.0, 9999999.0, 10000000.0, 1e20, 0.1, 1.0 / 3, 1e-5, Double.NaN,
+            Double.POSITIVE_INFINITY, 0.1f, 3.0f, "text", true
+        };
+        ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("h", 16);
+        for (Object value : values) {
+            encoder.begin(1);
+            encoder.add(key("k"), value);
+            String body = body(encoder, encoder.end());
+            String expected = "\"value\":\"" + value + "\"";
+            assertTrue(body, body.contains(expected));
+        }
+    }
+
+    @Test
+    public void escapesStrings() {
+        assertEquals("plain", ZabbixFrameEncoder.escape("plain"));
+        assertEquals("a\\\"b\\\\c\\u0009d", ZabbixFrameEncoder.escape("a\"b\\c\td"));
+
+        ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("h\"1", 16);
+        encoder.begin(1);
+        encoder.add(key("k\u00e9y"), "caf\u00e9 \ud83d\ude00 \"q\"\n");
+        assertEquals("{\"request\":\"sender data\",\"data\":["
+                     + "{\"host\":\"h\\\"1\",\"key\":\"k\u00e9y\",\"value\":\"caf\u00e9 \ud83d\ude00 \\\"q\\\"\\u000a\",\"clock\":1}"
+                     + "],\"clock\":1}", body(encoder, encoder.end()));
+    }
+
+    @Test
+    public void growsAndIsReused() {
+        ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("host", 64);
+        encoder.begin(1);
+        for (int i = 0; i < 1000; i++) {
+            encoder.add(key("metric" + i), (long) i);
+        }
+        int length = encoder.end();
+        assertEquals(1000, encoder.getItemCount());
+        String body = body(encoder, length);
+        assertTrue(body.contains("\"key\":\"metric999\",\"value\":\"999\""));
+        byte[] grown = encoder.getBuffer();
+
+        encoder.begin(2);
+        encoder.add(key("one"), 1L);
+        assertEquals("{\"request\":\"sender data\",\"data\":["
+                     + "{\"host\":\"host\",\"key\":\"one\",\"value\":\"1\",\"clock\":2}"
+                     + "],\"clock\":2}", body(encoder, encoder.end()));
+        assertSame(grown, encoder.getBuffer());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.addthis.metrics3.reporter.config.zabbix;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZabbixTrapperClientTest {
+
+    @Test
+    public void parsesAnswer() {
+        ZabbixTrapperClient.Response response = ZabbixTrapperClient.Response.parse(
+                "{\"response\":\"success\",\"info\":\"processed: 3; failed: 0; total: 3; seconds spent: 0.000053\"}");
+        assertTrue(response.success());
+        assertEquals(3, response.getProcessed());
+        assertEquals(0, response.getFailed());
+        assertEquals(3, response.getTotal());
+        assertEquals(0.000053f, response.getSpentSeconds(), 1e-9);
+
+        ZabbixTrapperClient.Response partly = ZabbixTrapperClient.Response.parse(
+                "{\"response\":\"success\",\"info\":\"processed: 1; failed: 1; total: 2; seconds spent: 0.1\"}");
+        assertFalse(partly.success());
+        assertTrue(partly.isAccepted());
+        ZabbixTrapperClient.Response failed = ZabbixTrapperClient.Response.parse("{\"response\":\"failed\"}");
+        assertFalse(failed.success());
+        assertFalse(failed.isAccepted());
+        assertFalse(ZabbixTrapperClient.Response.parse("garbage").isAccepted());
+    }
+
+    @Test
+    public void sendsFrameAndReadsAnswer() throws Exception {
+        try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final byte[][] received = new byte[1][];
+            Thread trapper = new Thread() {
+                @Override
+                public void run() {
+                    try (Socket connection = server.accept()) {
+                        DataInputStream in = new DataInputStream(connection.getInputStream());
+                        byte[] header = new byte[13];
+                        in.readFully(header);
+                        byte[] body = new byte[(int) ByteBuffer.wrap(header, 5, 8)
+                                                               .order(ByteOrder.LITTLE_ENDIAN).getLong()];
+                        in.readFully(body);
+                        received[0] = body;
+                        byte[] answer = "{\"response\":\"success\",\"info\":\"processed: 1; failed: 0; total: 1; seconds spent: 0.000010\"}"
+                                .getBytes(StandardCharsets.UTF_8);
+                        OutputStream out = connection.getOutputStream();
+                        out.write(new byte[] {'Z', 'B', 'X', 'D', 1});
+                        out.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(answer.length).array());
+                        out.write(answer);
+                    } catch (IOException e) {
+                        // test fails on the missing body
+                    }
+                }
+            };
+            trapper.start();
+
+            ZabbixFrameEncoder encoder = new ZabbixFrameEncoder("h", 64);
+            encoder.begin(1);
+            encoder.add("k".getBytes(StandardCharsets.UTF_8), 1L);
+            int length = encoder.end();
+            ZabbixTrapperClient client = new ZabbixTrapperClient("127.0.0.1", server.getLocalPort(), 2000, 2000);
+            ZabbixTrapperClient.Response response = client.send(encoder.getBuffer(), length);
+            trapper.join(5000);
+
+            assertTrue(response.success());
+            assertEquals(1, response.getProcessed());
+            assertEquals(new String(encoder.getBuffer(), 13, length - 13, StandardCharsets.UTF_8),
+                         new String(received[0], StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void connectionClosedWithoutAnswer() throws Exception {
+        try (final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread trapper = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        server.accept().close();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            };
+            trapper.start();
+            ZabbixTrapperClient client = new ZabbixTrapperClient("127.0.0.1", server.getLocalPort(), 2000, 2000);
+            try {
+                client.send(new byte[13], 13);
+                fail("expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+            trapper.join(5000);
+        }
+    }
+}